@@ -0,0 +1,74 @@
+package com.example.benchmarks;
+
+import com.example.LambdaHandler;
+import com.example.JsonMetricStreamDecoder;
+import com.example.MetricStreamDecoder;
+import com.example.OtlpMetricStreamDecoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Decodes one Firehose record payload, plain and gzipped, into {@link LambdaHandler.MetricStreamData}
+ * objects, for each metric stream output format.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecodeBenchmark {
+
+    @Param({"10", "500"})
+    public int metricsPerRecord;
+
+    @Param({"JSON", "OPENTELEMETRY_0_7"})
+    public MetricStreamGenerator.Format format;
+
+    private MetricStreamDecoder decoder;
+    private ByteBuffer payload;
+    private ByteBuffer gzippedPayload;
+
+    @Setup
+    public void setup() throws IOException {
+        decoder = format == MetricStreamGenerator.Format.JSON
+                ? new JsonMetricStreamDecoder()
+                : new OtlpMetricStreamDecoder();
+
+        byte[] data = new MetricStreamGenerator(100, 42, format)
+                .payload(metricsPerRecord, System.currentTimeMillis());
+        payload = ByteBuffer.wrap(data);
+
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(gzipped)) {
+            out.write(data);
+        }
+        gzippedPayload = ByteBuffer.wrap(gzipped.toByteArray());
+    }
+
+    @Benchmark
+    public void decode(Blackhole blackhole) throws IOException {
+        decoder.decode(payload, blackhole::consume);
+    }
+
+    @Benchmark
+    public void decodeGzip(Blackhole blackhole) throws IOException {
+        decoder.decode(gzippedPayload, blackhole::consume);
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.benchmarks;
+
+import com.example.RemoteWriteEncoder;
+import com.example.SeriesBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xerial.snappy.Snappy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes a buffer of series into snappy-compressed remote-write requests, and snappy on its own
+ * over the same protobuf bytes to tell the two costs apart.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodeBenchmark {
+
+    @Param({"1000", "20000"})
+    public int series;
+
+    private final RemoteWriteEncoder encoder = new RemoteWriteEncoder();
+    private final SeriesBuffer buffer = new SeriesBuffer();
+    private byte[] uncompressed;
+
+    @Setup
+    public void setup() throws IOException {
+        long timestamp = System.currentTimeMillis();
+        String[] labels = new String[8];
+        for (int i = 0; i < series; i++) {
+            labels[0] = "TableName";
+            labels[1] = "table-" + i;
+            labels[2] = "namespace";
+            labels[3] = "AWS_DynamoDB";
+            labels[4] = "account_id";
+            labels[5] = "123456789012";
+            labels[6] = "region";
+            labels[7] = "eu-north-1";
+            buffer.add("ConsumedReadCapacityUnits_sum", labels, 4, timestamp, i * 1.5, i);
+        }
+        List<RemoteWriteEncoder.Request> requests = encoder.encode(buffer);
+        ByteBuffer body = requests.get(0).getBody();
+        byte[] compressed = new byte[body.remaining()];
+        body.get(compressed);
+        uncompressed = Snappy.uncompress(compressed);
+        requests.forEach(RemoteWriteEncoder.Request::release);
+    }
+
+    // Gives the bodies back to the pool, as the handler does once they are sent
+    @Benchmark
+    public int encode() throws IOException {
+        List<RemoteWriteEncoder.Request> requests = encoder.encode(buffer);
+        requests.forEach(RemoteWriteEncoder.Request::release);
+        return requests.size();
+    }
+
+    // Compresses one request worth of protobuf
+    @Benchmark
+    public byte[] snappy() throws IOException {
+        return Snappy.compress(uncompressed);
+    }
+}
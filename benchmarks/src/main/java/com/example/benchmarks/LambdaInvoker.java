@@ -0,0 +1,63 @@
+package com.example.benchmarks;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.lambda.LambdaClient;
+import software.amazon.awssdk.services.lambda.model.InvokeRequest;
+import software.amazon.awssdk.services.lambda.model.InvokeResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Invokes the deployed function once with a generated Firehose event of metric stream records
+ * and prints its response.
+ *
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar com.example.benchmarks.LambdaInvoker \
+ *     &lt;function-name&gt; &lt;region&gt; [records] [metrics per record]
+ * </pre>
+ */
+public class LambdaInvoker {
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: LambdaInvoker <function-name> <region> [records] [metrics per record]");
+            System.exit(1);
+        }
+        String functionName = args[0];
+        String region = args[1];
+        int records = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int metricsPerRecord = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+
+        String jsonPayload = createJsonPayload(new MetricStreamGenerator(100, System.nanoTime()),
+                records, metricsPerRecord);
+
+        try (LambdaClient lambdaClient = LambdaClient.builder().region(Region.of(region)).build()) {
+            InvokeRequest invokeRequest = InvokeRequest.builder()
+                    .functionName(functionName)
+                    .payload(SdkBytes.fromString(jsonPayload, StandardCharsets.UTF_8))
+                    .build();
+
+            InvokeResponse invokeResponse = lambdaClient.invoke(invokeRequest);
+            System.out.println("Lambda Response: " + invokeResponse.payload().asString(StandardCharsets.UTF_8));
+        }
+    }
+
+    // A Firehose data transformation event with base64-encoded metric stream records
+    private static String createJsonPayload(MetricStreamGenerator generator, int records, int metricsPerRecord) {
+        long timestamp = System.currentTimeMillis() / 60_000 * 60_000;
+        StringBuilder json = new StringBuilder("{\"invocationId\":\"local-invoker\",\"region\":\"eu-north-1\",\"records\":[");
+        for (int i = 0; i < records; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"recordId\":\"record-").append(i)
+                .append("\",\"approximateArrivalTimestamp\":").append(System.currentTimeMillis())
+                .append(",\"data\":\"")
+                .append(Base64.getEncoder().encodeToString(generator.payload(metricsPerRecord, timestamp)))
+                .append("\"}");
+        }
+        return json.append("]}").toString();
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.benchmarks;
+
+import com.amazonaws.services.lambda.runtime.events.KinesisFirehoseEvent;
+import com.example.HandlerConfig;
+import com.example.LambdaHandler;
+import com.example.RemoteWriteSender;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * End-to-end load harness: invokes {@link LambdaHandler#handleRequest} in-process with generated
+ * metric stream batches, sending to a {@link LocalRemoteWriteEndpoint}, and reports throughput
+ * and invocation latency percentiles.
+ *
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar com.example.benchmarks.LoadHarness \
+ *     records=500 metrics=20 cardinality=1000 invocations=200 warmup=50 format=JSON throttle=0
+ * </pre>
+ *
+ * {@code throttle} is the share of remote-write requests the endpoint answers with 429 once the
+ * warmup is over.
+ */
+public class LoadHarness {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Expected key=value, got: " + arg);
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        int records = intOption(options, "records", 500);
+        int metricsPerRecord = intOption(options, "metrics", 20);
+        int cardinality = intOption(options, "cardinality", 1000);
+        int invocations = intOption(options, "invocations", 200);
+        int warmup = intOption(options, "warmup", 50);
+        MetricStreamGenerator.Format format =
+                MetricStreamGenerator.Format.valueOf(options.getOrDefault("format", "JSON"));
+        double throttleRate = Double.parseDouble(options.getOrDefault("throttle", "0"));
+        boolean verbose = Boolean.parseBoolean(options.getOrDefault("verbose", "false"));
+
+        try (LocalRemoteWriteEndpoint endpoint = new LocalRemoteWriteEndpoint()) {
+            Map<String, String> env = new HashMap<>(System.getenv());
+            env.put("PROMETHEUS_REMOTE_WRITE_URL", endpoint.url());
+            env.put("AWS_REGION", "eu-north-1");
+            env.remove("AWS_AMP_ROLE_ARN");
+            env.putIfAbsent("LOG_LEVEL", "WARN");
+            env.putIfAbsent("EMF_ENABLED", "false");
+            HandlerConfig config = HandlerConfig.of(env);
+
+            RemoteWriteSender sender = new RemoteWriteSender(config,
+                    StaticCredentialsProvider.create(AwsBasicCredentials.create("AKIDEXAMPLE", "secret")),
+                    ApacheHttpClient.builder().maxConnections(config.getHttpMaxConnections()).build());
+            LambdaHandler handler = new LambdaHandler(config, sender);
+            MetricStreamGenerator generator = new MetricStreamGenerator(cardinality, 42, format);
+            StubContext context = new StubContext(verbose);
+
+            System.out.printf("records=%d metrics/record=%d cardinality=%d invocations=%d warmup=%d format=%s%n",
+                    records, metricsPerRecord, cardinality, invocations, warmup, format);
+
+            for (int i = 0; i < warmup; i++) {
+                handler.handleRequest(nextEvent(generator, records, metricsPerRecord, i), context);
+            }
+
+            endpoint.setThrottleRate(throttleRate);
+            long requestsBefore = endpoint.requests();
+            long bytesBefore = endpoint.compressedBytes();
+            long[] latencies = new long[invocations];
+            long failed = 0;
+            for (int i = 0; i < invocations; i++) {
+                KinesisFirehoseEvent event = nextEvent(generator, records, metricsPerRecord, warmup + i);
+                long invocationStart = System.nanoTime();
+                LambdaHandler.KinesisFirehoseResponse response = handler.handleRequest(event, context);
+                latencies[i] = System.nanoTime() - invocationStart;
+                for (LambdaHandler.KinesisFirehoseResponse.Record record : response.getRecords()) {
+                    if (record.getResult() != LambdaHandler.KinesisFirehoseResponse.Result.Ok) {
+                        failed++;
+                    }
+                }
+            }
+            // Throughput over the time spent in the handler, generating the batches does not count
+            double seconds = Arrays.stream(latencies).sum() / 1e9;
+
+            Arrays.sort(latencies);
+            long totalRecords = (long) records * invocations;
+            System.out.printf("throughput: %.0f records/s, %.0f metrics/s%n",
+                    totalRecords / seconds, totalRecords * metricsPerRecord / seconds);
+            System.out.printf("latency ms: p50=%.2f p90=%.2f p99=%.2f max=%.2f%n",
+                    percentile(latencies, 0.50), percentile(latencies, 0.90),
+                    percentile(latencies, 0.99), latencies[latencies.length - 1] / 1e6);
+            System.out.printf("remote write: %d requests, %d compressed bytes, %d invalid, %d throttled; %d records not Ok%n",
+                    endpoint.requests() - requestsBefore, endpoint.compressedBytes() - bytesBefore,
+                    endpoint.invalidRequests(), endpoint.throttledRequests(), failed);
+            sender.close();
+        }
+    }
+
+    // Batches within the same minute share timestamps, as a metric stream's do
+    private static KinesisFirehoseEvent nextEvent(MetricStreamGenerator generator, int records, int metrics, int index) {
+        return generator.event(records, metrics, System.currentTimeMillis() / 60_000 * 60_000 + index);
+    }
+
+    private static double percentile(long[] sortedNanos, double quantile) {
+        int index = (int) Math.ceil(quantile * sortedNanos.length) - 1;
+        return sortedNanos[Math.max(0, index)] / 1e6;
+    }
+
+    private static int intOption(Map<String, String> options, String name, int defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.benchmarks;
+
+import com.sun.net.httpserver.HttpServer;
+import org.xerial.snappy.Snappy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Embedded HTTP stand-in for the AMP remote-write endpoint. It checks that each body is valid
+ * snappy, answers 200 and counts requests and bytes. With a throttle rate it answers that share
+ * of the requests with 429 and a one-second {@code Retry-After}, like a throttling workspace.
+ */
+public class LocalRemoteWriteEndpoint implements AutoCloseable {
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newFixedThreadPool(8);
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong compressedBytes = new AtomicLong();
+    private final AtomicLong uncompressedBytes = new AtomicLong();
+    private final AtomicLong invalidRequests = new AtomicLong();
+    private final AtomicLong throttledRequests = new AtomicLong();
+    private volatile double throttleRate;
+
+    public LocalRemoteWriteEndpoint() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/v1/remote_write", exchange -> {
+            byte[] body;
+            try (InputStream in = exchange.getRequestBody()) {
+                body = in.readAllBytes();
+            }
+            requests.incrementAndGet();
+            if (ThreadLocalRandom.current().nextDouble() < throttleRate) {
+                throttledRequests.incrementAndGet();
+                exchange.getResponseHeaders().add("Retry-After", "1");
+                exchange.sendResponseHeaders(429, -1);
+                exchange.close();
+                return;
+            }
+            compressedBytes.addAndGet(body.length);
+            int status = 200;
+            try {
+                uncompressedBytes.addAndGet(Snappy.uncompressedLength(body));
+            } catch (IOException e) {
+                invalidRequests.incrementAndGet();
+                status = 400;
+            }
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/api/v1/remote_write";
+    }
+
+    public long requests() { return requests.get(); }
+
+    public long compressedBytes() { return compressedBytes.get(); }
+
+    public long uncompressedBytes() { return uncompressedBytes.get(); }
+
+    public long invalidRequests() { return invalidRequests.get(); }
+
+    public long throttledRequests() { return throttledRequests.get(); }
+
+    public void setThrottleRate(double throttleRate) { this.throttleRate = throttleRate; }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
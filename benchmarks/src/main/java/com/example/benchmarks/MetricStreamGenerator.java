@@ -0,0 +1,271 @@
+package com.example.benchmarks;
+
+import com.amazonaws.services.lambda.runtime.events.KinesisFirehoseEvent;
+import com.google.protobuf.CodedOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Builds realistic CloudWatch Metric Stream batches, in the JSON or the OpenTelemetry 0.7 output
+ * format: metrics from a few AWS namespaces, with dimension values drawn from a configurable
+ * number of distinct resources and percentiles on the latency metrics.
+ */
+public class MetricStreamGenerator {
+
+    public enum Format {
+        JSON, OPENTELEMETRY_0_7
+    }
+
+    private static final String ACCOUNT_ID = "123456789012";
+    private static final String REGION = "eu-north-1";
+
+    private static final Namespace[] NAMESPACES = {
+            new Namespace("AWS/DynamoDB", new String[] {"TableName", "Operation"}, "table",
+                    new String[] {"ConsumedReadCapacityUnits", "ConsumedWriteCapacityUnits", "ThrottledRequests"},
+                    new String[] {"SuccessfulRequestLatency"}),
+            new Namespace("AWS/Lambda", new String[] {"FunctionName"}, "function",
+                    new String[] {"Invocations", "Errors", "Throttles"},
+                    new String[] {"Duration"}),
+            new Namespace("AWS/ApplicationELB", new String[] {"LoadBalancer", "TargetGroup"}, "app/alb",
+                    new String[] {"RequestCount", "HTTPCode_Target_5XX_Count"},
+                    new String[] {"TargetResponseTime"}),
+    };
+
+    private static final String[] OPERATIONS = {"GetItem", "PutItem", "Query", "UpdateItem"};
+
+    private final int cardinality;
+    private final Random random;
+    private final Format format;
+
+    public MetricStreamGenerator(int cardinality, long seed) {
+        this(cardinality, seed, Format.JSON);
+    }
+
+    /**
+     * @param cardinality number of distinct resources (dimension values) per namespace
+     */
+    public MetricStreamGenerator(int cardinality, long seed, Format format) {
+        this.cardinality = cardinality;
+        this.random = new Random(seed);
+        this.format = format;
+    }
+
+    /**
+     * Builds a Firehose event of {@code records} records holding {@code metricsPerRecord} metrics each.
+     */
+    public KinesisFirehoseEvent event(int records, int metricsPerRecord, long timestampMillis) {
+        List<KinesisFirehoseEvent.Record> eventRecords = new ArrayList<>(records);
+        for (int i = 0; i < records; i++) {
+            KinesisFirehoseEvent.Record record = new KinesisFirehoseEvent.Record();
+            record.setRecordId("record-" + i);
+            record.setData(ByteBuffer.wrap(payload(metricsPerRecord, timestampMillis)));
+            eventRecords.add(record);
+        }
+        KinesisFirehoseEvent event = new KinesisFirehoseEvent();
+        event.setRecords(eventRecords);
+        event.setDeliveryStreamArn("arn:aws:firehose:" + REGION + ":" + ACCOUNT_ID + ":deliverystream/metrics");
+        event.setRegion(REGION);
+        return event;
+    }
+
+    /**
+     * Builds one record payload of {@code metrics} metrics in the generator's format.
+     */
+    public byte[] payload(int metrics, long timestampMillis) {
+        List<Metric> batch = new ArrayList<>(metrics);
+        for (int i = 0; i < metrics; i++) {
+            batch.add(nextMetric(timestampMillis));
+        }
+        return format == Format.JSON ? json(batch) : otlp(batch);
+    }
+
+    private Metric nextMetric(long timestampMillis) {
+        Namespace namespace = NAMESPACES[random.nextInt(NAMESPACES.length)];
+        boolean latency = random.nextInt(4) == 0;
+        Metric metric = new Metric();
+        metric.namespace = namespace.name;
+        metric.name = latency
+                ? namespace.latencyMetrics[random.nextInt(namespace.latencyMetrics.length)]
+                : namespace.metrics[random.nextInt(namespace.metrics.length)];
+        metric.unit = latency ? "Milliseconds" : "Count";
+        metric.timestamp = timestampMillis;
+
+        int resource = random.nextInt(cardinality);
+        metric.dimensionNames = namespace.dimensions;
+        metric.dimensionValues = new String[namespace.dimensions.length];
+        for (int d = 0; d < namespace.dimensions.length; d++) {
+            metric.dimensionValues[d] = d == 0
+                    ? namespace.resourcePrefix + "-" + resource
+                    : OPERATIONS[resource % OPERATIONS.length];
+        }
+
+        metric.count = 1 + random.nextInt(1000);
+        metric.min = random.nextDouble() * 5;
+        metric.max = metric.min + random.nextDouble() * 100;
+        metric.sum = (metric.min + metric.max) / 2 * metric.count;
+        if (latency) {
+            metric.p50 = metric.min + (metric.max - metric.min) * 0.4;
+            metric.p99 = metric.min + (metric.max - metric.min) * 0.95;
+        }
+        return metric;
+    }
+
+    // Newline-delimited JSON objects
+    private static byte[] json(List<Metric> metrics) {
+        StringBuilder json = new StringBuilder(metrics.size() * 400);
+        for (Metric metric : metrics) {
+            json.append("{\"metric_stream_name\":\"prometheus-stream\",\"accountID\":\"").append(ACCOUNT_ID)
+                .append("\",\"region\":\"").append(REGION)
+                .append("\",\"namespace\":\"").append(metric.namespace)
+                .append("\",\"metricName\":\"").append(metric.name)
+                .append("\",\"dimensions\":{");
+            for (int d = 0; d < metric.dimensionNames.length; d++) {
+                if (d > 0) {
+                    json.append(',');
+                }
+                json.append('"').append(metric.dimensionNames[d]).append("\":\"")
+                    .append(metric.dimensionValues[d]).append('"');
+            }
+            json.append("},\"timestamp\":").append(metric.timestamp)
+                .append(",\"value\":{\"max\":").append(metric.max)
+                .append(",\"min\":").append(metric.min)
+                .append(",\"sum\":").append(metric.sum)
+                .append(",\"count\":").append(metric.count);
+            if (metric.p50 != null) {
+                json.append(",\"p50\":").append(metric.p50)
+                    .append(",\"p99\":").append(metric.p99);
+            }
+            json.append("},\"unit\":\"").append(metric.unit).append("\"}\n");
+        }
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // One length-delimited ExportMetricsServiceRequest holding every metric as a DoubleSummary
+    private static byte[] otlp(List<Metric> metrics) {
+        Message resource = new Message()
+                .message(1, new Message().string(1, "cloud.provider").message(2, new Message().string(1, "aws")))
+                .message(1, new Message().string(1, "cloud.account.id").message(2, new Message().string(1, ACCOUNT_ID)))
+                .message(1, new Message().string(1, "cloud.region").message(2, new Message().string(1, REGION)));
+        Message library = new Message();
+        for (Metric metric : metrics) {
+            Message dataPoint = new Message()
+                    .message(1, new Message().string(1, "Namespace").string(2, metric.namespace))
+                    .message(1, new Message().string(1, "MetricName").string(2, metric.name));
+            for (int d = 0; d < metric.dimensionNames.length; d++) {
+                dataPoint.message(1, new Message().string(1, metric.dimensionNames[d]).string(2, metric.dimensionValues[d]));
+            }
+            dataPoint.fixed64(2, (metric.timestamp - 60_000) * 1_000_000)
+                    .fixed64(3, metric.timestamp * 1_000_000)
+                    .fixed64(4, metric.count)
+                    .double64(5, metric.sum)
+                    .message(6, new Message().double64(1, 0.0).double64(2, metric.min));
+            if (metric.p50 != null) {
+                dataPoint.message(6, new Message().double64(1, 0.5).double64(2, metric.p50))
+                        .message(6, new Message().double64(1, 0.99).double64(2, metric.p99));
+            }
+            dataPoint.message(6, new Message().double64(1, 1.0).double64(2, metric.max));
+
+            library.message(2, new Message()
+                    .string(1, "amazonaws.com/" + metric.namespace + "/" + metric.name)
+                    .string(3, metric.unit)
+                    .message(11, new Message().message(1, dataPoint)));
+        }
+        byte[] request = new Message()
+                .message(1, new Message().message(1, resource).message(2, library))
+                .toByteArray();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(request.length + 5);
+        try {
+            CodedOutputStream coded = CodedOutputStream.newInstance(out);
+            coded.writeUInt32NoTag(request.length);
+            coded.writeRawBytes(request);
+            coded.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static final class Metric {
+        String namespace;
+        String name;
+        String unit;
+        long timestamp;
+        String[] dimensionNames;
+        String[] dimensionValues;
+        long count;
+        double sum;
+        double min;
+        double max;
+        Double p50;
+        Double p99;
+    }
+
+    // Minimal protobuf message builder, enough for the OTLP schema
+    private static final class Message {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+
+        Message string(int field, String value) {
+            return write(() -> out.writeString(field, value));
+        }
+
+        Message fixed64(int field, long value) {
+            return write(() -> out.writeFixed64(field, value));
+        }
+
+        Message double64(int field, double value) {
+            return write(() -> out.writeDouble(field, value));
+        }
+
+        Message message(int field, Message message) {
+            byte[] nested = message.toByteArray();
+            return write(() -> out.writeByteArray(field, nested));
+        }
+
+        byte[] toByteArray() {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return bytes.toByteArray();
+        }
+
+        private Message write(FieldWrite write) {
+            try {
+                write.run();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return this;
+        }
+
+        private interface FieldWrite {
+            void run() throws IOException;
+        }
+    }
+
+    private static final class Namespace {
+        final String name;
+        final String[] dimensions;
+        final String resourcePrefix;
+        final String[] metrics;
+        final String[] latencyMetrics;
+
+        Namespace(String name, String[] dimensions, String resourcePrefix, String[] metrics, String[] latencyMetrics) {
+            this.name = name;
+            this.dimensions = dimensions;
+            this.resourcePrefix = resourcePrefix;
+            this.metrics = metrics;
+            this.latencyMetrics = latencyMetrics;
+        }
+    }
+}
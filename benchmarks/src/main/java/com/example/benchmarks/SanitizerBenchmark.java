@@ -0,0 +1,71 @@
+package com.example.benchmarks;
+
+import com.example.MetricNameSanitizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link MetricNameSanitizer} with the {@code String.replaceAll} path it replaced, on a
+ * mix of names typical for CloudWatch metric streams: valid metric names, namespaces with a
+ * slash and dimension values with dashes and dots.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SanitizerBenchmark {
+
+    private static final String[] NAMES = {
+            "ConsumedReadCapacityUnits",
+            "SuccessfulRequestLatency",
+            "AWS/DynamoDB",
+            "AWS/ApplicationELB",
+            "orders-table-prod",
+            "app/my-load-balancer/50dc6c495c0c9188",
+            "eu-north-1",
+            "TableName",
+    };
+
+    private MetricNameSanitizer sanitizer;
+    private MetricNameSanitizer uncachedSanitizer;
+
+    @Setup
+    public void setup() {
+        sanitizer = new MetricNameSanitizer();
+        uncachedSanitizer = new MetricNameSanitizer(0);
+    }
+
+    @Benchmark
+    public void replaceAll(Blackhole blackhole) {
+        for (String name : NAMES) {
+            blackhole.consume(name.replaceAll("[^a-zA-Z0-9_]", "_"));
+        }
+    }
+
+    @Benchmark
+    public void sanitizer(Blackhole blackhole) {
+        for (String name : NAMES) {
+            blackhole.consume(sanitizer.sanitize(name));
+        }
+    }
+
+    @Benchmark
+    public void sanitizerWithoutCache(Blackhole blackhole) {
+        for (String name : NAMES) {
+            blackhole.consume(uncachedSanitizer.sanitize(name));
+        }
+    }
+}
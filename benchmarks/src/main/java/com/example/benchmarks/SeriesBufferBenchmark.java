@@ -0,0 +1,75 @@
+package com.example.benchmarks;
+
+import com.example.HandlerConfig;
+import com.example.JsonMetricStreamDecoder;
+import com.example.LambdaHandler;
+import com.example.RemoteWriteSender;
+import com.example.SeriesBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the series of a batch of decoded metrics through the handler's own conversion: relabeled
+ * and sanitized dimension, namespace, account and region labels, and one series per statistic.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SeriesBufferBenchmark {
+
+    @Param({"10", "10000"})
+    public int cardinality;
+
+    private final List<LambdaHandler.MetricStreamData> metrics = new ArrayList<>();
+    private final SeriesBuffer buffer = new SeriesBuffer();
+    private LambdaHandler handler;
+    private long invocationTime;
+
+    @Setup
+    public void setup() throws IOException {
+        Map<String, String> env = new HashMap<>();
+        // Nothing is sent
+        env.put("PROMETHEUS_REMOTE_WRITE_URL", "http://localhost:9090/api/v1/remote_write");
+        env.put("AWS_REGION", "eu-north-1");
+        env.put("LOG_LEVEL", "WARN");
+        env.put("EMF_ENABLED", "false");
+        HandlerConfig config = HandlerConfig.of(env);
+        handler = new LambdaHandler(config, new RemoteWriteSender(config,
+                StaticCredentialsProvider.create(AwsBasicCredentials.create("AKIDEXAMPLE", "secret")),
+                ApacheHttpClient.builder().build()));
+
+        invocationTime = System.currentTimeMillis();
+        byte[] payload = new MetricStreamGenerator(cardinality, 42).payload(5000, invocationTime);
+        new JsonMetricStreamDecoder().decode(ByteBuffer.wrap(payload), metrics::add);
+    }
+
+    @Benchmark
+    public SeriesBuffer buildSeries() {
+        buffer.clear();
+        handler.addSeries(metrics, buffer, invocationTime);
+        return buffer;
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.http.ContentStreamProvider;
+import software.amazon.awssdk.http.SdkHttpFullRequest;
+import software.amazon.awssdk.http.SdkHttpMethod;
+import software.amazon.awssdk.http.auth.aws.signer.AwsV4HttpSigner;
+import software.amazon.awssdk.http.auth.spi.signer.SignedRequest;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SigV4-signs a remote-write POST the way {@code RemoteWriteSender} does; signing hashes the
+ * whole body, so its cost grows with the request size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SigningBenchmark {
+
+    @Param({"16384", "262144"})
+    public int bodySize;
+
+    private final AwsV4HttpSigner signer = AwsV4HttpSigner.create();
+    private final AwsBasicCredentials credentials = AwsBasicCredentials.create("AKIDEXAMPLE", "secret");
+    private SdkHttpFullRequest request;
+    private ContentStreamProvider payload;
+
+    @Setup
+    public void setup() {
+        byte[] body = new byte[bodySize];
+        new Random(42).nextBytes(body);
+        payload = () -> new ByteArrayInputStream(body);
+        request = SdkHttpFullRequest.builder()
+                .uri(URI.create("https://aps-workspaces.eu-north-1.amazonaws.com/workspaces/ws-example/api/v1/remote_write"))
+                .method(SdkHttpMethod.POST)
+                .putHeader("Content-Type", "application/x-protobuf")
+                .putHeader("Content-Encoding", "snappy")
+                .putHeader("X-Prometheus-Remote-Write-Version", "0.1.0")
+                .contentStreamProvider(payload)
+                .build();
+    }
+
+    @Benchmark
+    public SignedRequest sign() {
+        return signer.sign(r -> r.identity(credentials)
+                .request(request)
+                .payload(payload)
+                .putProperty(AwsV4HttpSigner.SERVICE_SIGNING_NAME, "aps")
+                .putProperty(AwsV4HttpSigner.REGION_NAME, "eu-north-1"));
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.benchmarks;
+
+import com.amazonaws.services.lambda.runtime.ClientContext;
+import com.amazonaws.services.lambda.runtime.CognitoIdentity;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Minimal Lambda {@link Context} for invoking the handler in-process. Log lines are discarded
+ * unless {@code verbose} is set.
+ */
+public class StubContext implements Context {
+
+    private final boolean verbose;
+    private final String requestId = UUID.randomUUID().toString();
+
+    public StubContext(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    @Override
+    public String getAwsRequestId() { return requestId; }
+
+    @Override
+    public String getLogGroupName() { return "/aws/lambda/firehose-prometheus-harness"; }
+
+    @Override
+    public String getLogStreamName() { return "harness"; }
+
+    @Override
+    public String getFunctionName() { return "firehose-prometheus-harness"; }
+
+    @Override
+    public String getFunctionVersion() { return "$LATEST"; }
+
+    @Override
+    public String getInvokedFunctionArn() {
+        return "arn:aws:lambda:eu-north-1:123456789012:function:firehose-prometheus-harness";
+    }
+
+    @Override
+    public CognitoIdentity getIdentity() { return null; }
+
+    @Override
+    public ClientContext getClientContext() { return null; }
+
+    @Override
+    public int getRemainingTimeInMillis() { return 300_000; }
+
+    @Override
+    public int getMemoryLimitInMB() { return 512; }
+
+    @Override
+    public LambdaLogger getLogger() {
+        return new LambdaLogger() {
+            @Override
+            public void log(String message) {
+                if (verbose) {
+                    System.out.println(message);
+                }
+            }
+
+            @Override
+            public void log(byte[] message) {
+                log(new String(message, StandardCharsets.UTF_8));
+            }
+        };
+    }
+}
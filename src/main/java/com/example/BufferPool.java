@@ -0,0 +1,99 @@
+package com.example;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Pool of direct byte buffers for the remote-write path, in power-of-two size classes from 4 KiB.
+ *
+ * The protobuf encoder writes into them and snappy compresses from one to another without going
+ * through the heap, and the HTTP client reads the request body straight from its buffer. Direct
+ * buffers keep the request bodies of an invocation, the bulk of its short-lived memory, out of a
+ * small heap. One pool lives for the container, so warm invocations allocate nothing.
+ *
+ * At most {@code maxPooledBytes} are kept; buffers released past that, and buffers larger than the
+ * largest class, are left to the garbage collector. A buffer released again while it is still in
+ * the pool is ignored, so it cannot be handed out twice.
+ *
+ * Thread-safe: the send threads release the request bodies concurrently.
+ */
+public class BufferPool {
+
+    public static final int DEFAULT_MAX_POOLED_BYTES = 16 * 1024 * 1024;
+
+    private static final int MIN_CLASS_SHIFT = 12;
+    private static final int MAX_CLASS_SHIFT = 26;
+
+    private final ArrayDeque<ByteBuffer>[] classes;
+    // The buffers in the classes; ByteBuffer.equals compares contents, hence identity
+    private final Set<ByteBuffer> pooled = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final long maxPooledBytes;
+    private long pooledBytes;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public BufferPool(long maxPooledBytes) {
+        this.maxPooledBytes = maxPooledBytes;
+        this.classes = new ArrayDeque[MAX_CLASS_SHIFT - MIN_CLASS_SHIFT + 1];
+        for (int i = 0; i < classes.length; i++) {
+            classes[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * A cleared buffer of at least {@code capacity} bytes, to be given back with {@link #release}.
+     */
+    public ByteBuffer acquire(int capacity) {
+        int sizeClass = sizeClass(capacity);
+        if (sizeClass < classes.length) {
+            synchronized (this) {
+                ByteBuffer buffer = classes[sizeClass].pollFirst();
+                if (buffer != null) {
+                    pooled.remove(buffer);
+                    pooledBytes -= buffer.capacity();
+                    buffer.clear();
+                    return buffer;
+                }
+            }
+            return ByteBuffer.allocateDirect(1 << (sizeClass + MIN_CLASS_SHIFT));
+        }
+        return ByteBuffer.allocateDirect(capacity);
+    }
+
+    /**
+     * Gives {@code buffer} back; it must not be used afterwards. Ignores null.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+        int sizeClass = sizeClass(buffer.capacity());
+        if (sizeClass >= classes.length || buffer.capacity() != 1 << (sizeClass + MIN_CLASS_SHIFT)) {
+            return;
+        }
+        synchronized (this) {
+            if (pooledBytes + buffer.capacity() <= maxPooledBytes && pooled.add(buffer)) {
+                classes[sizeClass].addFirst(buffer);
+                pooledBytes += buffer.capacity();
+            }
+        }
+    }
+
+    /**
+     * Drops every pooled buffer, e.g. before a SnapStart snapshot so it does not carry them.
+     */
+    public synchronized void clear() {
+        for (ArrayDeque<ByteBuffer> sizeClass : classes) {
+            sizeClass.clear();
+        }
+        pooled.clear();
+        pooledBytes = 0;
+    }
+
+    private static int sizeClass(int capacity) {
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(capacity, 1) - 1);
+        return Math.max(shift, MIN_CLASS_SHIFT) - MIN_CLASS_SHIFT;
+    }
+}
@@ -0,0 +1,99 @@
+package com.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * Picks the JSON or the OpenTelemetry decoder from the content of each record, so a delivery
+ * stream can switch output format without redeploying the function.
+ *
+ * A JSON payload starts with {@code '{'}, possibly after whitespace, which is also a valid first
+ * byte of an OTLP length prefix. A payload is therefore only taken for OTLP when its
+ * length-delimited messages chain exactly to its end, each starting with the
+ * {@code resource_metrics} tag, which metric stream JSON never does.
+ *
+ * A gzipped payload is told apart from its first {@value #PREFIX_BYTES} inflated bytes and then
+ * inflated on the fly by the chosen decoder. Its messages only have to chain up to the end of
+ * that prefix: a JSON byte read as a length prefix is below 128, so JSON would have to chain
+ * dozens of times by accident.
+ */
+class FormatDetectingDecoder implements MetricStreamDecoder {
+
+    // Tag of ExportMetricsServiceRequest.resource_metrics: field 1, length-delimited
+    private static final int RESOURCE_METRICS_TAG = 0x0a;
+
+    // Inflated bytes of a gzipped payload looked at to detect its format
+    static final int PREFIX_BYTES = 4096;
+
+    private final JsonMetricStreamDecoder jsonDecoder;
+    private final OtlpMetricStreamDecoder otlpDecoder;
+
+    FormatDetectingDecoder(JsonMetricStreamDecoder jsonDecoder, OtlpMetricStreamDecoder otlpDecoder) {
+        this.jsonDecoder = jsonDecoder;
+        this.otlpDecoder = otlpDecoder;
+    }
+
+    @Override
+    public void decode(ByteBuffer data, Consumer<LambdaHandler.MetricStreamData> consumer) throws IOException {
+        if (!MetricStreamDecoder.isGzip(data)) {
+            if (isOtlp(data, true)) {
+                otlpDecoder.decode(data, consumer);
+            } else {
+                jsonDecoder.decode(data, consumer);
+            }
+            return;
+        }
+        try (PushbackInputStream in = new PushbackInputStream(MetricStreamDecoder.gunzip(data), PREFIX_BYTES)) {
+            byte[] prefix = new byte[PREFIX_BYTES];
+            int length = in.readNBytes(prefix, 0, PREFIX_BYTES);
+            in.unread(prefix, 0, length);
+            if (isOtlp(ByteBuffer.wrap(prefix, 0, length), length < PREFIX_BYTES)) {
+                otlpDecoder.decode(in, consumer);
+            } else {
+                jsonDecoder.decode(in, consumer);
+            }
+        }
+    }
+
+    /**
+     * @param complete whether {@code payload} is the whole payload; otherwise it is a prefix and its
+     *                 last message may run past its end
+     */
+    static boolean isOtlp(ByteBuffer payload, boolean complete) {
+        int position = payload.position();
+        int limit = payload.limit();
+        if (position == limit) {
+            return false;
+        }
+        while (position < limit) {
+            // Varint length prefix of the next message
+            long length = 0;
+            int shift = 0;
+            int b;
+            do {
+                if (position == limit) {
+                    // Cut off by the end of a prefix
+                    return !complete;
+                }
+                if (shift > 28) {
+                    return false;
+                }
+                b = payload.get(position++) & 0xff;
+                length |= (long) (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+
+            if (length > limit - position && complete) {
+                return false;
+            }
+            if (length > 0 && position < limit && (payload.get(position) & 0xff) != RESOURCE_METRICS_TAG) {
+                return false;
+            }
+            position += (int) Math.min(length, limit - position);
+        }
+        return true;
+    }
+}
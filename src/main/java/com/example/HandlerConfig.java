@@ -0,0 +1,217 @@
+package com.example;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Configuration of the handler, read once per container from the Lambda environment variables.
+ */
+public class HandlerConfig {
+
+    /**
+     * What happens to samples older than the out-of-order window.
+     */
+    public enum LateSampleAction {
+        DROP,
+        // Written to the overflow sink, to be backfilled out of band; dropped without a sink
+        OVERFLOW;
+
+        static LateSampleAction parse(String value) {
+            if (value == null || value.trim().isEmpty()) {
+                return DROP;
+            }
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid value for LATE_SAMPLES: " + value, e);
+            }
+        }
+    }
+
+    private final String remoteWriteUrl;
+    private final String region;
+    private final String ampRoleArn;
+    private final HandlerLog.Level logLevel;
+    private final MetricStreamDecoder.Format metricStreamFormat;
+    private final boolean emfEnabled;
+    private final String metricsNamespace;
+    private final boolean primeOnInit;
+    private final int maxSamplesPerRequest;
+    private final int maxRequestBytes;
+    private final int targetLatencyMillis;
+    private final int bufferPoolMaxBytes;
+    private final long downsamplingWindowMillis;
+    private final long outOfOrderWindowMillis;
+    private final LateSampleAction lateSampleAction;
+    private final int sentTimestampIndexSize;
+    private final LabelRules labelRules;
+    private final int seriesLimitPerMetric;
+    private final int sanitizerCacheSize;
+    private final int stringPoolSize;
+    private final int processingConcurrency;
+    private final int maxInFlightRequests;
+    private final int sendMaxAttempts;
+    private final int sendRetryBaseDelayMillis;
+    private final int sendRetryMaxDelayMillis;
+    private final int spillMaxBytes;
+    private final String spillFile;
+    private final String overflowS3Bucket;
+    private final String overflowS3Prefix;
+    private final String overflowS3Endpoint;
+    private final int httpMaxConnections;
+    private final Duration httpConnectionTimeout;
+    private final Duration httpSocketTimeout;
+    private final Duration httpConnectionMaxIdleTime;
+
+    HandlerConfig(Map<String, String> env) {
+        this.remoteWriteUrl = required("PROMETHEUS_REMOTE_WRITE_URL", env.get("PROMETHEUS_REMOTE_WRITE_URL"));
+        // Lambda sets it; requests are signed for it and AWS_AMP_ROLE_ARN is assumed through its STS endpoint
+        this.region = required("AWS_REGION", env.get("AWS_REGION"));
+        this.ampRoleArn = env.get("AWS_AMP_ROLE_ARN");
+        this.logLevel = HandlerLog.parseLevel(env.get("LOG_LEVEL"));
+        this.metricStreamFormat = MetricStreamDecoder.Format.parse(env.get("METRIC_STREAM_FORMAT"));
+        this.emfEnabled = !"false".equalsIgnoreCase(env.get("EMF_ENABLED"));
+        this.metricsNamespace = env.getOrDefault("METRICS_NAMESPACE", "FirehosePrometheusLambda");
+        this.primeOnInit = "true".equalsIgnoreCase(env.get("PRIME_ON_INIT"));
+        this.maxSamplesPerRequest = intValue(env, "REMOTE_WRITE_MAX_SAMPLES_PER_REQUEST",
+                RemoteWriteEncoder.DEFAULT_MAX_SAMPLES_PER_REQUEST);
+        this.maxRequestBytes = positive("REMOTE_WRITE_MAX_REQUEST_BYTES",
+                intValue(env, "REMOTE_WRITE_MAX_REQUEST_BYTES", RemoteWriteEncoder.DEFAULT_MAX_REQUEST_BYTES));
+        this.targetLatencyMillis = intValue(env, "REMOTE_WRITE_TARGET_LATENCY_MS", 1000);
+        this.bufferPoolMaxBytes = intValue(env, "BUFFER_POOL_MAX_BYTES", BufferPool.DEFAULT_MAX_POOLED_BYTES);
+        this.downsamplingWindowMillis = intValue(env, "DOWNSAMPLING_WINDOW_SECONDS", 0) * 1000L;
+        this.outOfOrderWindowMillis = intValue(env, "OUT_OF_ORDER_WINDOW_SECONDS", 3600) * 1000L;
+        this.lateSampleAction = LateSampleAction.parse(env.get("LATE_SAMPLES"));
+        this.sentTimestampIndexSize = intValue(env, "SENT_TIMESTAMP_INDEX_SIZE", 65536);
+        this.labelRules = LabelRules.parse(env.get("LABEL_RULES"));
+        this.seriesLimitPerMetric = intValue(env, "SERIES_LIMIT_PER_METRIC", 0);
+        this.sanitizerCacheSize = intValue(env, "SANITIZER_CACHE_SIZE", MetricNameSanitizer.DEFAULT_CACHE_SIZE);
+        this.stringPoolSize = intValue(env, "STRING_POOL_SIZE", StringPool.DEFAULT_SIZE);
+        this.processingConcurrency = positive("PROCESSING_CONCURRENCY",
+                intValue(env, "PROCESSING_CONCURRENCY", Runtime.getRuntime().availableProcessors()));
+        this.maxInFlightRequests = positive("MAX_IN_FLIGHT_REQUESTS", intValue(env, "MAX_IN_FLIGHT_REQUESTS", 4));
+        this.sendMaxAttempts = positive("SEND_MAX_ATTEMPTS", intValue(env, "SEND_MAX_ATTEMPTS", 4));
+        this.sendRetryBaseDelayMillis = intValue(env, "SEND_RETRY_BASE_DELAY_MS", 100);
+        this.sendRetryMaxDelayMillis = intValue(env, "SEND_RETRY_MAX_DELAY_MS", 2000);
+        this.spillMaxBytes = intValue(env, "SPILL_MAX_BYTES", 0);
+        this.spillFile = env.getOrDefault("SPILL_FILE", "/tmp/remote-write-spill/segment");
+        this.overflowS3Bucket = env.get("OVERFLOW_S3_BUCKET");
+        this.overflowS3Prefix = env.getOrDefault("OVERFLOW_S3_PREFIX", "remote-write/");
+        this.overflowS3Endpoint = env.getOrDefault("OVERFLOW_S3_ENDPOINT", "https://s3." + region + ".amazonaws.com");
+        this.httpMaxConnections = intValue(env, "HTTP_MAX_CONNECTIONS", 8);
+        this.httpConnectionTimeout = Duration.ofMillis(intValue(env, "HTTP_CONNECTION_TIMEOUT_MS", 2000));
+        this.httpSocketTimeout = Duration.ofMillis(intValue(env, "HTTP_SOCKET_TIMEOUT_MS", 10000));
+        this.httpConnectionMaxIdleTime = Duration.ofMillis(intValue(env, "HTTP_CONNECTION_MAX_IDLE_MS", 60000));
+    }
+
+    public static HandlerConfig fromEnvironment() {
+        return new HandlerConfig(System.getenv());
+    }
+
+    public static HandlerConfig of(Map<String, String> env) {
+        return new HandlerConfig(env);
+    }
+
+    public String getRemoteWriteUrl() { return remoteWriteUrl; }
+
+    public String getRegion() { return region; }
+
+    public String getAmpRoleArn() { return ampRoleArn; }
+
+    public HandlerLog.Level getLogLevel() { return logLevel; }
+
+    public MetricStreamDecoder.Format getMetricStreamFormat() { return metricStreamFormat; }
+
+    public boolean isEmfEnabled() { return emfEnabled; }
+
+    public String getMetricsNamespace() { return metricsNamespace; }
+
+    public boolean isPrimeOnInit() { return primeOnInit; }
+
+    public int getMaxSamplesPerRequest() { return maxSamplesPerRequest; }
+
+    // Compressed body size
+    public int getMaxRequestBytes() { return maxRequestBytes; }
+
+    public int getTargetLatencyMillis() { return targetLatencyMillis; }
+
+    // Direct memory kept for request buffers between invocations
+    public int getBufferPoolMaxBytes() { return bufferPoolMaxBytes; }
+
+    // Zero disables downsampling
+    public long getDownsamplingWindowMillis() { return downsamplingWindowMillis; }
+
+    // Zero accepts samples of any age
+    public long getOutOfOrderWindowMillis() { return outOfOrderWindowMillis; }
+
+    public LateSampleAction getLateSampleAction() { return lateSampleAction; }
+
+    // Zero disables the index
+    public int getSentTimestampIndexSize() { return sentTimestampIndexSize; }
+
+    public LabelRules getLabelRules() { return labelRules; }
+
+    // Zero disables the limit
+    public int getSeriesLimitPerMetric() { return seriesLimitPerMetric; }
+
+    public int getSanitizerCacheSize() { return sanitizerCacheSize; }
+
+    public int getStringPoolSize() { return stringPoolSize; }
+
+    public int getProcessingConcurrency() { return processingConcurrency; }
+
+    public int getMaxInFlightRequests() { return maxInFlightRequests; }
+
+    public int getSendMaxAttempts() { return sendMaxAttempts; }
+
+    public int getSendRetryBaseDelayMillis() { return sendRetryBaseDelayMillis; }
+
+    public int getSendRetryMaxDelayMillis() { return sendRetryMaxDelayMillis; }
+
+    // Zero disables spilling
+    public int getSpillMaxBytes() { return spillMaxBytes; }
+
+    public String getSpillFile() { return spillFile; }
+
+    // Null without an overflow sink
+    public String getOverflowS3Bucket() { return overflowS3Bucket; }
+
+    public String getOverflowS3Prefix() { return overflowS3Prefix; }
+
+    public String getOverflowS3Endpoint() { return overflowS3Endpoint; }
+
+    public int getHttpMaxConnections() { return httpMaxConnections; }
+
+    public Duration getHttpConnectionTimeout() { return httpConnectionTimeout; }
+
+    public Duration getHttpSocketTimeout() { return httpSocketTimeout; }
+
+    public Duration getHttpConnectionMaxIdleTime() { return httpConnectionMaxIdleTime; }
+
+    static String required(String name, String value) {
+        if (value == null || value.trim().isEmpty()) {
+            throw new IllegalArgumentException(name + " must be set");
+        }
+        return value.trim();
+    }
+
+    static int positive(String name, int value) {
+        if (value <= 0) {
+            throw new IllegalArgumentException(name + " must be positive: " + value);
+        }
+        return value;
+    }
+
+    static int intValue(Map<String, String> env, String name, int defaultValue) {
+        String value = env.get(name);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for " + name + ": " + value, e);
+        }
+    }
+}
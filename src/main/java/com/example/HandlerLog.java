@@ -0,0 +1,115 @@
+package com.example;
+
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Leveled logger over the Lambda logger, configured with the {@code LOG_LEVEL} environment variable.
+ *
+ * Messages are built lazily from a {@link Supplier}, so disabled levels cost neither string
+ * concatenation nor allocation on the hot path. Errors that can repeat for every record go
+ * through a {@link Sampler}, which logs the first few of an invocation and counts the rest.
+ */
+public class HandlerLog {
+
+    public enum Level {
+        ERROR, WARN, INFO, DEBUG
+    }
+
+    private final Level level;
+    private volatile LambdaLogger logger;
+
+    public HandlerLog(Level level) {
+        this.level = level;
+    }
+
+    static Level parseLevel(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return Level.INFO;
+        }
+        try {
+            return Level.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid value for LOG_LEVEL: " + value, e);
+        }
+    }
+
+    /**
+     * Binds the logger of the current invocation; invocations of a container never overlap.
+     */
+    public void begin(LambdaLogger logger) {
+        this.logger = logger;
+    }
+
+    public boolean isEnabled(Level messageLevel) {
+        return messageLevel.compareTo(level) <= 0;
+    }
+
+    public void error(Supplier<String> message) {
+        log(Level.ERROR, message);
+    }
+
+    public void warn(Supplier<String> message) {
+        log(Level.WARN, message);
+    }
+
+    public void info(Supplier<String> message) {
+        log(Level.INFO, message);
+    }
+
+    public void debug(Supplier<String> message) {
+        log(Level.DEBUG, message);
+    }
+
+    public void log(Level messageLevel, Supplier<String> message) {
+        if (isEnabled(messageLevel)) {
+            logger.log(messageLevel + " " + message.get());
+        }
+    }
+
+    /**
+     * Writes a line as-is, whatever the level, e.g. an embedded metric format document.
+     */
+    public void emit(String line) {
+        logger.log(line);
+    }
+
+    /**
+     * Returns a sampler logging at most {@code limit} messages per invocation at {@code level}.
+     */
+    public Sampler sampler(Level level, String description, int limit) {
+        return new Sampler(level, description, limit);
+    }
+
+    public final class Sampler {
+        private final Level samplerLevel;
+        private final String description;
+        private final int limit;
+        private final AtomicInteger count = new AtomicInteger();
+
+        private Sampler(Level level, String description, int limit) {
+            this.samplerLevel = level;
+            this.description = description;
+            this.limit = limit;
+        }
+
+        public void log(Supplier<String> message) {
+            if (count.incrementAndGet() <= limit) {
+                HandlerLog.this.log(samplerLevel, message);
+            }
+        }
+
+        /**
+         * Logs how many messages were suppressed since the last flush and resets the sampler.
+         */
+        public void flush() {
+            int suppressed = count.getAndSet(0) - limit;
+            if (suppressed > 0) {
+                HandlerLog.this.log(samplerLevel, () -> suppressed + " more " + description + " suppressed");
+            }
+        }
+    }
+}
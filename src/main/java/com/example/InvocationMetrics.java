@@ -0,0 +1,163 @@
+package com.example;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timings and counters of one invocation, written once at the end as a CloudWatch Embedded
+ * Metric Format (EMF) log line so dashboards need no extra API calls.
+ *
+ * All slots are preallocated and indexed by enum ordinal; recording a value is a single atomic
+ * add, safe from the concurrent workers and senders. Timers accumulate {@link System#nanoTime()}
+ * deltas, so stages running on several workers report their summed time.
+ */
+public class InvocationMetrics {
+
+    public enum Timer {
+        // JSON parsing is fused with payload decoding by the streaming decoder
+        DECODE("DecodeTime"),
+        CONVERT("ConvertTime"),
+        AGGREGATE("AggregateTime"),
+        ENCODE("EncodeTime"),
+        SIGN("SignTime"),
+        SEND("SendTime"),
+        TOTAL("Duration");
+
+        private final String metricName;
+
+        Timer(String metricName) {
+            this.metricName = metricName;
+        }
+    }
+
+    public enum Counter {
+        RECORDS("Records", "Count"),
+        DROPPED_RECORDS("DroppedRecords", "Count"),
+        FAILED_RECORDS("FailedRecords", "Count"),
+        SERIES("Series", "Count"),
+        LIMITED_SERIES("LimitedSeries", "Count"),
+        SAMPLES("Samples", "Count"),
+        // Older than the out-of-order window
+        LATE_SAMPLES("LateSamples", "Count"),
+        // Sent by an earlier invocation, skipped
+        ALREADY_SENT_SAMPLES("AlreadySentSamples", "Count"),
+        // Older than a sample sent for their series by an earlier invocation, sent anyway
+        OUT_OF_ORDER_SAMPLES("OutOfOrderSamples", "Count"),
+        MERGED_SAMPLES("MergedSamples", "Count"),
+        PAYLOAD_BYTES("PayloadBytes", "Bytes"),
+        REQUESTS("Requests", "Count"),
+        // Sizing picked for the invocation, see ShardSizer
+        SHARDS("Shards", "Count"),
+        SAMPLES_PER_REQUEST("SamplesPerRequest", "Count"),
+        RETRIES("Retries", "Count"),
+        SPILLED_REQUESTS("SpilledRequests", "Count"),
+        FLUSHED_REQUESTS("FlushedRequests", "Count"),
+        OVERFLOW_REQUESTS("OverflowRequests", "Count"),
+        // Left in the spill file at the end of the invocation
+        SPILL_BYTES("SpillBytes", "Bytes"),
+        STATUS_2XX("Status2xx", "Count"),
+        STATUS_429("Status429", "Count"),
+        STATUS_4XX("Status4xx", "Count"),
+        STATUS_5XX("Status5xx", "Count"),
+        CONNECTION_ERRORS("ConnectionErrors", "Count");
+
+        private final String metricName;
+        private final String unit;
+
+        Counter(String metricName, String unit) {
+            this.metricName = metricName;
+            this.unit = unit;
+        }
+    }
+
+    private static final Timer[] TIMERS = Timer.values();
+    private static final Counter[] COUNTERS = Counter.values();
+
+    private final AtomicLongArray timers = new AtomicLongArray(TIMERS.length);
+    private final AtomicLongArray counters = new AtomicLongArray(COUNTERS.length);
+    private final String emfDirective;
+
+    public InvocationMetrics(String namespace) {
+        this.emfDirective = emfDirective(namespace);
+    }
+
+    public void reset() {
+        for (int i = 0; i < TIMERS.length; i++) {
+            timers.set(i, 0);
+        }
+        for (int i = 0; i < COUNTERS.length; i++) {
+            counters.set(i, 0);
+        }
+    }
+
+    public void addTime(Timer timer, long nanos) {
+        timers.addAndGet(timer.ordinal(), nanos);
+    }
+
+    public void add(Counter counter, long delta) {
+        counters.addAndGet(counter.ordinal(), delta);
+    }
+
+    public void increment(Counter counter) {
+        counters.incrementAndGet(counter.ordinal());
+    }
+
+    public long get(Counter counter) {
+        return counters.get(counter.ordinal());
+    }
+
+    public long millis(Timer timer) {
+        return timers.get(timer.ordinal()) / 1_000_000;
+    }
+
+    public void recordStatus(int statusCode) {
+        if (statusCode == 429) {
+            increment(Counter.STATUS_429);
+        } else if (statusCode / 100 == 2) {
+            increment(Counter.STATUS_2XX);
+        } else if (statusCode / 100 == 4) {
+            increment(Counter.STATUS_4XX);
+        } else if (statusCode / 100 == 5) {
+            increment(Counter.STATUS_5XX);
+        }
+    }
+
+    /**
+     * Renders the metrics as one EMF JSON document with a {@code FunctionName} dimension.
+     */
+    public String toEmf(String functionName, long timestampMillis) {
+        StringBuilder json = new StringBuilder(emfDirective.length() + 512);
+        json.append("{\"_aws\":{\"Timestamp\":").append(timestampMillis).append(',').append(emfDirective)
+            .append("},\"FunctionName\":\"").append(escape(functionName)).append('"');
+        for (Timer timer : TIMERS) {
+            json.append(",\"").append(timer.metricName).append("\":")
+                .append(timers.get(timer.ordinal()) / 1_000_000.0);
+        }
+        for (Counter counter : COUNTERS) {
+            json.append(",\"").append(counter.metricName).append("\":").append(counters.get(counter.ordinal()));
+        }
+        return json.append('}').toString();
+    }
+
+    // The metric definitions never change, so they are rendered once
+    private static String emfDirective(String namespace) {
+        StringBuilder json = new StringBuilder("\"CloudWatchMetrics\":[{\"Namespace\":\"")
+                .append(escape(namespace))
+                .append("\",\"Dimensions\":[[\"FunctionName\"]],\"Metrics\":[");
+        for (Timer timer : TIMERS) {
+            json.append("{\"Name\":\"").append(timer.metricName).append("\",\"Unit\":\"Milliseconds\"},");
+        }
+        for (Counter counter : COUNTERS) {
+            json.append("{\"Name\":\"").append(counter.metricName)
+                .append("\",\"Unit\":\"").append(counter.unit).append("\"},");
+        }
+        json.setLength(json.length() - 1);
+        return json.append("]}]").toString();
+    }
+
+    private static String escape(String value) {
+        if (value == null) {
+            return "";
+        }
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
@@ -0,0 +1,225 @@
+package com.example;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.StreamReadFeature;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Decodes the JSON output format of CloudWatch Metric Streams.
+ *
+ * CloudWatch Metric Streams deliver newline-delimited JSON; the parser reads the root-level
+ * values straight from the record {@link ByteBuffer} (its backing array when there is one), so no
+ * intermediate String, line array or payload copy is built. Gzip-compressed payloads are
+ * detected from their magic bytes and inflated on the fly.
+ *
+ * The fixed metric stream schema is read token by token rather than through data binding:
+ * repeated strings come from a bounded {@link StringPool}, dimensions are kept as a sorted array of
+ * name/value pairs and unknown fields are skipped.
+ */
+public class JsonMetricStreamDecoder implements MetricStreamDecoder {
+
+    private static final String[] NO_DIMENSIONS = new String[0];
+
+    // Parse errors must not echo the payload into the logs
+    private final JsonFactory jsonFactory = JsonFactory.builder()
+            .disable(StreamReadFeature.INCLUDE_SOURCE_IN_LOCATION)
+            .build();
+    private final StringPool stringPool;
+
+    public JsonMetricStreamDecoder() {
+        this(new StringPool());
+    }
+
+    public JsonMetricStreamDecoder(StringPool stringPool) {
+        this.stringPool = stringPool;
+    }
+
+    /**
+     * @throws IOException if the payload is not valid (optionally gzipped) newline-delimited JSON
+     *                     of metric stream objects
+     */
+    @Override
+    public void decode(ByteBuffer data, Consumer<LambdaHandler.MetricStreamData> consumer) throws IOException {
+        try (JsonParser parser = createParser(data)) {
+            decode(parser, consumer);
+        }
+    }
+
+    // Decodes an inflated payload, e.g. the rest of a gzipped record whose start was read to detect
+    // its format
+    void decode(InputStream in, Consumer<LambdaHandler.MetricStreamData> consumer) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(in)) {
+            decode(parser, consumer);
+        }
+    }
+
+    private void decode(JsonParser parser, Consumer<LambdaHandler.MetricStreamData> consumer) throws IOException {
+        // Dimensions of the metric being read, copied out once complete
+        String[] dimensionScratch = new String[16];
+        JsonToken token;
+        while ((token = parser.nextToken()) != null) {
+            if (token != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Expected a metric object, got " + token);
+            }
+            LambdaHandler.MetricStreamData metric = new LambdaHandler.MetricStreamData();
+            dimensionScratch = readMetric(parser, metric, dimensionScratch);
+            consumer.accept(metric);
+        }
+    }
+
+    // Reads the fields of the current object into metric; returns the (possibly grown) scratch array
+    private String[] readMetric(JsonParser parser, LambdaHandler.MetricStreamData metric, String[] dimensionScratch)
+            throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            // Field names are canonicalized by the parser, so this does not allocate
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            switch (field) {
+                case "metric_stream_name":
+                    metric.setMetricStreamName(readString(parser, token));
+                    break;
+                case "accountID":
+                    metric.setAccountID(readString(parser, token));
+                    break;
+                case "region":
+                    metric.setRegion(readString(parser, token));
+                    break;
+                case "namespace":
+                    metric.setNamespace(readString(parser, token));
+                    break;
+                case "metricName":
+                    metric.setMetricName(readString(parser, token));
+                    break;
+                case "dimensions":
+                    dimensionScratch = readDimensions(parser, token, metric, dimensionScratch);
+                    break;
+                case "timestamp":
+                    metric.setTimestamp(readLong(parser, token, field));
+                    break;
+                case "value":
+                    metric.setValue(readValue(parser, token));
+                    break;
+                case "unit":
+                    metric.setUnit(readString(parser, token));
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return dimensionScratch;
+    }
+
+    private String[] readDimensions(JsonParser parser, JsonToken token, LambdaHandler.MetricStreamData metric,
+                                    String[] scratch) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return scratch;
+        }
+        if (token != JsonToken.START_OBJECT) {
+            throw new JsonParseException(parser, "Expected an object for dimensions, got " + token);
+        }
+        int count = 0;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken valueToken = parser.nextToken();
+            if (valueToken == JsonToken.START_OBJECT || valueToken == JsonToken.START_ARRAY) {
+                throw new JsonParseException(parser, "Expected a scalar value for dimension " + name);
+            }
+            if (count * 2 == scratch.length) {
+                scratch = Arrays.copyOf(scratch, scratch.length * 2);
+            }
+            scratch[count * 2] = name;
+            scratch[count * 2 + 1] = valueToken == JsonToken.VALUE_NULL ? "null" : pooledText(parser);
+            count++;
+        }
+        SeriesBuffer.sortLabels(scratch, count);
+        metric.setDimensions(count == 0 ? NO_DIMENSIONS : Arrays.copyOf(scratch, count * 2));
+        return scratch;
+    }
+
+    private LambdaHandler.Value readValue(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token != JsonToken.START_OBJECT) {
+            throw new JsonParseException(parser, "Expected an object for value, got " + token);
+        }
+        LambdaHandler.Value value = new LambdaHandler.Value();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String statistic = parser.getCurrentName();
+            JsonToken statisticToken = parser.nextToken();
+            switch (statistic) {
+                case "count":
+                    value.setCount(readDouble(parser, statisticToken, statistic));
+                    break;
+                case "sum":
+                    value.setSum(readDouble(parser, statisticToken, statistic));
+                    break;
+                case "max":
+                    value.setMax(readDouble(parser, statisticToken, statistic));
+                    break;
+                case "min":
+                    value.setMin(readDouble(parser, statisticToken, statistic));
+                    break;
+                default:
+                    if (statisticToken.isNumeric() && LambdaHandler.Value.isPercentile(statistic)) {
+                        value.addPercentile(statistic, parser.getDoubleValue());
+                    } else {
+                        parser.skipChildren();
+                    }
+            }
+        }
+        return value;
+    }
+
+    private String readString(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+            throw new JsonParseException(parser, "Expected a string, got " + token);
+        }
+        return pooledText(parser);
+    }
+
+    private String pooledText(JsonParser parser) throws IOException {
+        return stringPool.intern(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+    }
+
+    private static long readLong(JsonParser parser, JsonToken token, String field) throws IOException {
+        if (token == JsonToken.VALUE_NUMBER_INT) {
+            return parser.getLongValue();
+        }
+        if (token == JsonToken.VALUE_NUMBER_FLOAT) {
+            return (long) parser.getDoubleValue();
+        }
+        throw new JsonParseException(parser, "Expected a number for " + field + ", got " + token);
+    }
+
+    private static double readDouble(JsonParser parser, JsonToken token, String field) throws IOException {
+        if (token.isNumeric()) {
+            return parser.getDoubleValue();
+        }
+        throw new JsonParseException(parser, "Expected a number for " + field + ", got " + token);
+    }
+
+    private JsonParser createParser(ByteBuffer data) throws IOException {
+        ByteBuffer payload = data.duplicate();
+        if (MetricStreamDecoder.isGzip(payload)) {
+            return jsonFactory.createParser(MetricStreamDecoder.gunzip(payload));
+        }
+        if (payload.hasArray()) {
+            return jsonFactory.createParser(
+                    payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
+        }
+        return jsonFactory.createParser(new ByteBufferBackedInputStream(payload));
+    }
+}
@@ -0,0 +1,250 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Relabeling of the CloudWatch dimensions of each namespace, set with {@code LABEL_RULES}: a
+ * {@code ;}-separated list of {@code <namespace>:<action>:<arguments>} entries, where the
+ * namespace {@code *} applies to every namespace.
+ *
+ * <ul>
+ *   <li>{@code keep:Dim1,Dim2} drops every other dimension, except those with a rename or hash rule</li>
+ *   <li>{@code drop:Dim1,Dim2} drops the dimensions</li>
+ *   <li>{@code rename:Dim=label} writes the dimension as the {@code label} label</li>
+ *   <li>{@code hash:Dim=16} replaces the value with one of 16 buckets, {@code 0} to {@code 15}</li>
+ * </ul>
+ *
+ * For example {@code AWS/DynamoDB:drop:Operation;AWS/ApplicationELB:hash:TargetGroup=32}.
+ * Rules of a namespace override the {@code *} rules of the same dimension. Everything is resolved
+ * when the configuration is read, so applying the rules is a map lookup per dimension.
+ */
+public class LabelRules {
+
+    public static final LabelRules NONE = new LabelRules(Collections.emptyMap(), Namespace.UNCHANGED);
+
+    private static final String ANY_NAMESPACE = "*";
+    private static final int MAX_BUCKETS = 10_000;
+    private static final Set<String> RESERVED_LABELS = new HashSet<>(Arrays.asList(
+            LambdaHandler.NAMESPACE_LABEL, LambdaHandler.ACCOUNT_LABEL, LambdaHandler.REGION_LABEL,
+            LambdaHandler.QUANTILE_LABEL));
+
+    public enum Action {
+        KEEP, DROP, RENAME, HASH
+    }
+
+    private final Map<String, Namespace> namespaces;
+    private final Namespace defaults;
+
+    private LabelRules(Map<String, Namespace> namespaces, Namespace defaults) {
+        this.namespaces = namespaces;
+        this.defaults = defaults;
+    }
+
+    /**
+     * Rules of {@code namespace}; a namespace without rules of its own gets the {@code *} rules.
+     */
+    public Namespace forNamespace(String namespace) {
+        if (namespace == null) {
+            return defaults;
+        }
+        Namespace rules = namespaces.get(namespace);
+        return rules != null ? rules : defaults;
+    }
+
+    public boolean isEmpty() {
+        return namespaces.isEmpty() && defaults == Namespace.UNCHANGED;
+    }
+
+    static LabelRules parse(String spec) {
+        if (spec == null || spec.trim().isEmpty()) {
+            return NONE;
+        }
+
+        // Entries grouped by namespace, in their order of appearance
+        Map<String, List<String[]>> entries = new LinkedHashMap<>();
+        for (String entry : spec.split(";")) {
+            if (entry.trim().isEmpty()) {
+                continue;
+            }
+            String[] parts = entry.trim().split(":", 3);
+            if (parts.length != 3 || parts[0].trim().isEmpty() || parts[2].trim().isEmpty()) {
+                throw invalid(entry, "expected <namespace>:<action>:<arguments>");
+            }
+            entries.computeIfAbsent(parts[0].trim(), namespace -> new ArrayList<>()).add(parts);
+        }
+
+        List<String[]> anyNamespace = entries.getOrDefault(ANY_NAMESPACE, Collections.emptyList());
+        Namespace defaults = anyNamespace.isEmpty() ? Namespace.UNCHANGED : compile(anyNamespace);
+        Map<String, Namespace> namespaces = new HashMap<>();
+        for (Map.Entry<String, List<String[]>> entry : entries.entrySet()) {
+            if (!entry.getKey().equals(ANY_NAMESPACE)) {
+                List<String[]> combined = new ArrayList<>(anyNamespace);
+                combined.addAll(entry.getValue());
+                namespaces.put(entry.getKey(), compile(combined));
+            }
+        }
+        return new LabelRules(namespaces, defaults);
+    }
+
+    // Later entries override earlier ones, so the namespace's own entries come after the * ones
+    private static Namespace compile(List<String[]> entries) {
+        Map<String, Rule> rules = new HashMap<>();
+        Set<String> keep = null;
+        boolean anyNamespaceKeep = false;
+        for (String[] entry : entries) {
+            String entryText = String.join(":", entry);
+            Action action = action(entryText, entry[1].trim());
+            boolean ownEntry = !entry[0].trim().equals(ANY_NAMESPACE);
+            for (String argument : entry[2].split(",")) {
+                String dimension = argument.trim();
+                if (dimension.isEmpty()) {
+                    continue;
+                }
+                switch (action) {
+                    case KEEP:
+                        // A keep list of the namespace replaces the * keep list
+                        if (keep == null || (ownEntry && anyNamespaceKeep)) {
+                            if (keep != null) {
+                                for (String kept : keep) {
+                                    rules.remove(kept, Rule.KEEP);
+                                }
+                            }
+                            keep = new HashSet<>();
+                            anyNamespaceKeep = !ownEntry;
+                        }
+                        keep.add(dimension);
+                        // Renamed and hashed dimensions are kept already
+                        Rule current = rules.get(dimension);
+                        if (current == null || current == Rule.DROP) {
+                            rules.put(dimension, Rule.KEEP);
+                        }
+                        break;
+                    case DROP:
+                        rules.put(dimension, Rule.DROP);
+                        break;
+                    case RENAME: {
+                        String[] pair = pair(entryText, dimension);
+                        rules.put(pair[0], new Rule(Action.RENAME, labelName(entryText, pair[1]), null));
+                        break;
+                    }
+                    case HASH: {
+                        String[] pair = pair(entryText, dimension);
+                        rules.put(pair[0], new Rule(Action.HASH, null, buckets(entryText, pair[1])));
+                        break;
+                    }
+                    default:
+                        throw new IllegalStateException("Unknown action: " + action);
+                }
+            }
+        }
+        return new Namespace(rules, keep != null ? Rule.DROP : Rule.KEEP);
+    }
+
+    private static Action action(String entry, String action) {
+        try {
+            return Action.valueOf(action.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw invalid(entry, "unknown action " + action);
+        }
+    }
+
+    private static String[] pair(String entry, String argument) {
+        int separator = argument.indexOf('=');
+        if (separator <= 0 || separator == argument.length() - 1) {
+            throw invalid(entry, "expected <dimension>=<value>, got " + argument);
+        }
+        return new String[] {argument.substring(0, separator).trim(), argument.substring(separator + 1).trim()};
+    }
+
+    private static String labelName(String entry, String label) {
+        if (!label.matches("[a-zA-Z_][a-zA-Z0-9_]*") || label.startsWith("__") || RESERVED_LABELS.contains(label)) {
+            throw invalid(entry, "invalid or reserved label name " + label);
+        }
+        return label;
+    }
+
+    private static String[] buckets(String entry, String count) {
+        int buckets;
+        try {
+            buckets = Integer.parseInt(count);
+        } catch (NumberFormatException e) {
+            throw invalid(entry, "invalid bucket count " + count);
+        }
+        if (buckets <= 0 || buckets > MAX_BUCKETS) {
+            throw invalid(entry, "bucket count must be between 1 and " + MAX_BUCKETS);
+        }
+        String[] values = new String[buckets];
+        for (int i = 0; i < buckets; i++) {
+            values[i] = Integer.toString(i);
+        }
+        return values;
+    }
+
+    private static IllegalArgumentException invalid(String entry, String reason) {
+        return new IllegalArgumentException("Invalid LABEL_RULES entry '" + entry.trim() + "': " + reason);
+    }
+
+    /**
+     * The rules of one namespace.
+     */
+    public static final class Namespace {
+
+        static final Namespace UNCHANGED = new Namespace(Collections.emptyMap(), Rule.KEEP);
+
+        private final Map<String, Rule> rules;
+        private final Rule otherDimensions;
+
+        private Namespace(Map<String, Rule> rules, Rule otherDimensions) {
+            this.rules = rules;
+            this.otherDimensions = otherDimensions;
+        }
+
+        public Rule ruleFor(String dimension) {
+            Rule rule = rules.get(dimension);
+            return rule != null ? rule : otherDimensions;
+        }
+    }
+
+    /**
+     * What happens to one dimension.
+     */
+    public static final class Rule {
+
+        static final Rule KEEP = new Rule(Action.KEEP, null, null);
+        static final Rule DROP = new Rule(Action.DROP, null, null);
+
+        private final Action action;
+        private final String label;
+        private final String[] buckets;
+
+        private Rule(Action action, String label, String[] buckets) {
+            this.action = action;
+            this.label = label;
+            this.buckets = buckets;
+        }
+
+        public Action getAction() {
+            return action;
+        }
+
+        // Label name of a renamed dimension, null when the dimension keeps its own name
+        public String getLabel() {
+            return label;
+        }
+
+        // Bucket of a hashed value, from a preallocated set of strings
+        public String bucket(String value) {
+            int hash = value.hashCode() * 0x9e3779b9;
+            return buckets[Math.floorMod(hash ^ (hash >>> 16), buckets.length)];
+        }
+    }
+}
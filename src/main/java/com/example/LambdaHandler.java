@@ -1,271 +1,772 @@
 package com.example;
 
-import com.amazonaws.auth.AWSCredentials;
 import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.KinesisFirehoseEvent;
-import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import io.prometheus.client.exporter.common.TextFormat;
-import io.prometheus.client.Gauge;
-import io.prometheus.client.Collector;
-import software.amazon.awssdk.services.sts.auth.StsAssumeRoleCredentialsProvider;
-import java.io.StringWriter;
+import org.crac.Core;
+import org.crac.Resource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Enumeration;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.io.ByteArrayInputStream;
-import java.util.stream.Stream;
-import java.net.http.HttpRequest;
-import java.net.http.HttpClient;
-import java.net.http.HttpResponse;
-import java.net.URI;
-import software.amazon.awssdk.http.auth.aws.signer.AwsV4HttpSigner;
-import software.amazon.awssdk.http.auth.spi.signer.SignRequest;
-import software.amazon.awssdk.http.auth.spi.signer.SignedRequest;
-import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
-import software.amazon.awssdk.auth.credentials.AwsCredentials;
-import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
-import software.amazon.awssdk.auth.signer.params.Aws4SignerParams;
-import software.amazon.awssdk.services.sts.auth.StsAssumeRoleCredentialsProvider;
-import software.amazon.awssdk.services.sts.StsClient;
-import software.amazon.awssdk.services.sts.model.AssumeRoleRequest;
-import software.amazon.awssdk.auth.signer.Aws4Signer;
-import software.amazon.awssdk.auth.signer.params.Aws4SignerParams;
-import software.amazon.awssdk.regions.Region;
-import software.amazon.awssdk.http.HttpExecuteRequest;
-import software.amazon.awssdk.http.HttpExecuteResponse;
-import software.amazon.awssdk.http.SdkHttpFullRequest;
-import software.amazon.awssdk.http.SdkHttpMethod;
-import software.amazon.awssdk.http.apache.ApacheHttpClient;
-import software.amazon.awssdk.http.SdkHttpClient;
-
-public class LambdaHandler implements RequestHandler<KinesisFirehoseEvent, LambdaHandler.KinesisFirehoseResponse> {
-
-    private static final ObjectMapper objectMapper = new ObjectMapper();
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class LambdaHandler implements RequestHandler<KinesisFirehoseEvent, LambdaHandler.KinesisFirehoseResponse>, Resource {
+
+    static final String NAMESPACE_LABEL = "namespace";
+    static final String ACCOUNT_LABEL = "account_id";
+    static final String REGION_LABEL = "region";
+    static final String QUANTILE_LABEL = "quantile";
+
+    // Dimensions named like a label the handler writes itself are written as dimension_<name>
+    private static final Map<String, String> RESERVED_DIMENSION_LABELS = new HashMap<>();
+    static {
+        for (String label : new String[] {NAMESPACE_LABEL, ACCOUNT_LABEL, REGION_LABEL, QUANTILE_LABEL, "__name__"}) {
+            RESERVED_DIMENSION_LABELS.put(label, "dimension_" + label);
+        }
+    }
+
+    // Values.values() copies the array on every call
+    private static final Values[] STATISTICS = Values.values();
+
+    // Quantile label values of the percentiles seen so far, e.g. "p99" -> "0.99". A stream only
+    // has a handful; the bound keeps odd payloads from growing the map.
+    private static final int MAX_QUANTILES = 256;
+    private static final Map<String, String> QUANTILES = new ConcurrentHashMap<>();
+
+    // Time kept aside to build the response once retries give up
+    private static final long RESPONSE_MARGIN_MILLIS = 1000;
+
+    // Enough iterations for the hot methods to be compiled by C1
+    private static final int PRIMING_ITERATIONS = 2000;
+    private static final LambdaLogger DISCARDING_LOGGER = new LambdaLogger() {
+        @Override
+        public void log(String message) {
+        }
+
+        @Override
+        public void log(byte[] message) {
+        }
+    };
+
+    // Lambda creates the handler once per container, so everything below is built during the
+    // init phase and reused by every warm invocation
+    private final HandlerConfig config;
+    private final MetricStreamDecoder metricStreamDecoder;
+    private final MetricNameSanitizer metricNameSanitizer;
+    // Series names of each statistic by sanitized metric name, e.g. "CPU" -> ["CPU_count", ...]
+    private final Map<String, String[]> statisticNames = new ConcurrentHashMap<>();
+    private final LabelRules labelRules;
+    private final SeriesLimiter seriesLimiter;
+    private final BufferPool bufferPool;
+    private final RemoteWriteEncoder remoteWriteEncoder;
+    private final ShardSizer shardSizer;
+    private final RemoteWriteSender remoteWriteSender;
+    private final SendQueue sendQueue;
+    // Where samples older than the out-of-order window go, null to drop them
+    private final OverflowSink lateSampleSink;
+    private final SentTimestamps sentTimestamps;
+    private final HandlerLog log;
+    private final HandlerLog.Sampler droppedRecordLog;
+    private final HandlerLog.Sampler sendErrorLog;
+    private final RetryPolicy retryPolicy;
+
+    // Records are converted by up to PROCESSING_CONCURRENCY workers, and up to
+    // MAX_IN_FLIGHT_REQUESTS shards of remote-write requests are sent at the same time
+    private final ExecutorService processingExecutor;
+    private final ExecutorService sendExecutor;
+
+    // Filled and drained by each invocation; a handler instance serves one invocation at a time
+    private final SeriesBuffer seriesBuffer = new SeriesBuffer();
+    private final SeriesBuffer lateSeriesBuffer = new SeriesBuffer();
+    private final Partition[] partitions;
+    private final InvocationMetrics metrics;
+
+    public LambdaHandler() {
+        this(HandlerConfig.fromEnvironment());
+    }
+
+    public LambdaHandler(HandlerConfig config) {
+        this(config, new RemoteWriteSender(config));
+    }
+
+    public LambdaHandler(HandlerConfig config, RemoteWriteSender remoteWriteSender) {
+        this(config, remoteWriteSender, S3OverflowSink.create(config, remoteWriteSender));
+    }
+
+    /**
+     * @param overflowSink where requests go once the spill file is full, null for nowhere
+     */
+    public LambdaHandler(HandlerConfig config, RemoteWriteSender remoteWriteSender, OverflowSink overflowSink) {
+        this.config = config;
+        this.metricStreamDecoder = MetricStreamDecoder.create(config.getMetricStreamFormat(),
+                new StringPool(config.getStringPoolSize()));
+        this.metricNameSanitizer = new MetricNameSanitizer(config.getSanitizerCacheSize());
+        this.labelRules = config.getLabelRules();
+        this.seriesLimiter = new SeriesLimiter(config.getSeriesLimitPerMetric());
+        this.bufferPool = new BufferPool(config.getBufferPoolMaxBytes());
+        this.remoteWriteEncoder = new RemoteWriteEncoder(config.getMaxSamplesPerRequest(), config.getMaxRequestBytes(),
+                bufferPool);
+        this.shardSizer = new ShardSizer(config.getMaxSamplesPerRequest(), config.getMaxInFlightRequests(),
+                config.getTargetLatencyMillis());
+        this.remoteWriteSender = remoteWriteSender;
+        this.sendQueue = new SendQueue(
+                config.getSpillMaxBytes() > 0 ? new SpillQueue(Paths.get(config.getSpillFile()), config.getSpillMaxBytes()) : null,
+                overflowSink, config.getSendRetryMaxDelayMillis());
+        this.lateSampleSink = config.getLateSampleAction() == HandlerConfig.LateSampleAction.OVERFLOW ? overflowSink : null;
+        // A window split across invocations is sent twice at its start: the index would silently
+        // skip the second part, which AMP rejects instead when the index is off
+        this.sentTimestamps = new SentTimestamps(
+                config.getDownsamplingWindowMillis() > 0 ? 0 : config.getSentTimestampIndexSize());
+        this.log = new HandlerLog(config.getLogLevel());
+        this.droppedRecordLog = log.sampler(HandlerLog.Level.WARN, "dropped records", 5);
+        this.sendErrorLog = log.sampler(HandlerLog.Level.ERROR, "send errors", 5);
+        this.retryPolicy = new RetryPolicy(config.getSendMaxAttempts(),
+                config.getSendRetryBaseDelayMillis(), config.getSendRetryMaxDelayMillis());
+        this.processingExecutor = Executors.newFixedThreadPool(config.getProcessingConcurrency(),
+                daemonThreadFactory("record-processor"));
+        this.sendExecutor = Executors.newFixedThreadPool(config.getMaxInFlightRequests(),
+                daemonThreadFactory("remote-write"));
+        this.partitions = createPartitions(config.getProcessingConcurrency());
+        this.metrics = new InvocationMetrics(config.getMetricsNamespace());
+
+        // SnapStart calls beforeCheckpoint() once init is done; without SnapStart the hooks never run
+        Core.getGlobalContext().register(this);
+        if (config.isPrimeOnInit()) {
+            prime();
+        }
+    }
+
+    @Override
+    public void beforeCheckpoint(org.crac.Context<? extends Resource> context) {
+        prime();
+    }
+
+    @Override
+    public void afterRestore(org.crac.Context<? extends Resource> context) {
+        // Pooled connections and cached credentials belong to the container that was checkpointed
+        remoteWriteSender.reconnect();
+    }
+
+    /**
+     * Runs synthetic records through decoding, conversion, aggregation, encoding and signing, so
+     * the classes, Jackson deserializers and native snappy library are loaded and the hot paths
+     * compiled before the first invocation, or before the SnapStart snapshot is taken.
+     * Nothing is sent and the buffers and metrics are left empty.
+     */
+    void prime() {
+        log.begin(DISCARDING_LOGGER);
+        List<KinesisFirehoseEvent.Record> records = new ArrayList<>(4);
+        if (config.getMetricStreamFormat() != MetricStreamDecoder.Format.OPENTELEMETRY_0_7) {
+            records.add(primingRecord(PrimingPayloads.JSON));
+            records.add(primingRecord(PrimingPayloads.gzip(PrimingPayloads.JSON)));
+        }
+        if (config.getMetricStreamFormat() != MetricStreamDecoder.Format.JSON) {
+            records.add(primingRecord(PrimingPayloads.OPENTELEMETRY_0_7));
+            records.add(primingRecord(PrimingPayloads.gzip(PrimingPayloads.OPENTELEMETRY_0_7)));
+        }
+        KinesisFirehoseResponse.Result[] results = new KinesisFirehoseResponse.Result[records.size()];
+        Partition partition = partitions[0];
+        try {
+            for (int i = 0; i < PRIMING_ITERATIONS; i++) {
+                processPartition(partition, records, 0, records.size(), results, System.currentTimeMillis());
+                seriesBuffer.addAll(partition.seriesBuffer);
+                partition.clear();
+                seriesBuffer.aggregate(config.getDownsamplingWindowMillis());
+                for (RemoteWriteEncoder.Request request : remoteWriteEncoder.encode(seriesBuffer)) {
+                    remoteWriteSender.prime(request.getBody());
+                    request.release();
+                }
+                seriesBuffer.clear();
+                KinesisFirehoseResponse.Record.of(records.get(0), results[0]);
+            }
+            metrics.toEmf("priming", System.currentTimeMillis());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Priming failed", e);
+        } finally {
+            partition.clear();
+            seriesBuffer.clear();
+            lateSeriesBuffer.clear();
+            seriesLimiter.clear();
+            bufferPool.clear();
+            metrics.reset();
+        }
+    }
+
+    private static KinesisFirehoseEvent.Record primingRecord(byte[] payload) {
+        KinesisFirehoseEvent.Record record = new KinesisFirehoseEvent.Record();
+        record.setRecordId("priming");
+        record.setData(ByteBuffer.wrap(payload));
+        return record;
+    }
 
     @Override
     public KinesisFirehoseResponse handleRequest(KinesisFirehoseEvent firehoseEvent, Context context) {
-        KinesisFirehoseResponse response = new KinesisFirehoseResponse();
-        List<KinesisFirehoseResponse.Record> responseRecords = new ArrayList<>();
-
-        for (KinesisFirehoseEvent.Record record : firehoseEvent.getRecords()) {
-            String data = new String(record.getData().array());
-            context.getLogger().log("Decoded data: " + data); // Log the decoded data
-            
-            // Fix: Ensure no extra or empty iteration occurs
-            String[] splitRecord = data.split("\n");
-            for (String x : splitRecord) {
-                if (x.trim().isEmpty()) {
-                    context.getLogger().log("Empty or invalid record skipped.");
-                    continue;
+        long startNanos = System.nanoTime();
+        log.begin(context.getLogger());
+        metrics.reset();
+        // Series of every record of the invocation, pushed together in one remote-write batch.
+        // Samples carry the timestamps of the metric stream; this one stands in for a missing one.
+        long invocationTime = System.currentTimeMillis();
+        seriesLimiter.resetIfDue(invocationTime);
+        // Retries stop early enough to answer Firehose before the Lambda times out
+        long deadlineNanos = System.nanoTime()
+                + Math.max(0, context.getRemainingTimeInMillis() - RESPONSE_MARGIN_MILLIS) * 1_000_000L;
+
+        // Exactly one result per record, Ok unless the record is dropped or its send fails
+        List<KinesisFirehoseEvent.Record> records = firehoseEvent.getRecords();
+        metrics.add(InvocationMetrics.Counter.RECORDS, records.size());
+        KinesisFirehoseResponse.Result[] results = new KinesisFirehoseResponse.Result[records.size()];
+        Arrays.fill(results, KinesisFirehoseResponse.Result.Ok);
+
+        // Split the records into contiguous partitions converted concurrently, each into its own
+        // buffer; merging them in partition order keeps the records in their original order
+        int partitionCount = Math.min(partitions.length, records.size());
+        try {
+            if (partitionCount == 1) {
+                processPartition(partitions[0], records, 0, records.size(), results, invocationTime);
+            } else if (partitionCount > 1) {
+                List<Future<?>> futures = new ArrayList<>(partitionCount);
+                for (int p = 0; p < partitionCount; p++) {
+                    Partition partition = partitions[p];
+                    int from = (int) ((long) records.size() * p / partitionCount);
+                    int to = (int) ((long) records.size() * (p + 1) / partitionCount);
+                    futures.add(processingExecutor.submit(
+                            () -> processPartition(partition, records, from, to, results, invocationTime)));
                 }
-        
-                try {
-                    context.getLogger().log("Processing record: " + x);
-                    MetricStreamData metricStreamData = objectMapper.readValue(x, MetricStreamData.class);
-                    context.getLogger().log("Parsed MetricStreamData: " + metricStreamData); // Log the parsed object
-        
-                    // Log individual fields of MetricStreamData
-                    String metricName = metricStreamData.getMetricName();
-                    context.getLogger().log("Metric Name: " + (metricName != null ? metricName : "null"));
-        
-                    // Ensure the value field is not null and count is accessible
-                    Double valueCount = (metricStreamData.getValue() != null) 
-                                         ? metricStreamData.getValue().count 
-                                         : null;
-        
-                    context.getLogger().log("Value: " + (valueCount != null ? valueCount : "null"));
-        
-                    // Handle potential null values in metricName
-                    String sanitizedMetricName = (metricStreamData.getMetricName() != null)
-                        ? metricStreamData.getMetricName().replaceAll("[^a-zA-Z0-9]", "_")
-                        : "Unknown_Metric";
-        
-                    context.getLogger().log("Sanitized Metric Name: " + sanitizedMetricName);
-        
-                    List<Gauge> gauges = createGauges(metricStreamData, context);
-        
-                    // Push the metrics to Prometheus
-                    pushMetricsToPrometheus(gauges);
-        
-                    // Add the record to the response
-                    KinesisFirehoseResponse.Record responseRecord = new KinesisFirehoseResponse.Record();
-                    responseRecord.setRecordId(record.getRecordId());
-                    responseRecord.setResult(KinesisFirehoseResponse.Result.Ok);
-                    responseRecords.add(responseRecord);
-                } catch (Exception e) {
-                    context.getLogger().log("Error processing record: " + e.getMessage());
-                    context.getLogger().log("Exception: " + e.toString()); // Log the exception details
+                awaitAll(futures);
+            }
+
+            for (int p = 0; p < partitionCount; p++) {
+                seriesBuffer.addAll(partitions[p].seriesBuffer);
+                lateSeriesBuffer.addAll(partitions[p].lateSeriesBuffer);
+            }
+        } finally {
+            for (int p = 0; p < partitionCount; p++) {
+                partitions[p].clear();
+            }
+        }
+
+        // Push the metrics of the whole invocation to Prometheus, then drain the buffer.
+        // Only the records of requests that still fail after retrying are marked failed.
+        try {
+            // Remote write wants each series in timestamp order and rejects repeated timestamps
+            long aggregateStart = System.nanoTime();
+            metrics.add(InvocationMetrics.Counter.MERGED_SAMPLES,
+                    seriesBuffer.aggregate(config.getDownsamplingWindowMillis()));
+            // Samples already sent for a redelivered batch would be rejected as duplicates; the
+            // unsent ones older than a sample sent for their series are late, and go out too
+            if (sentTimestamps.isEnabled()) {
+                metrics.add(InvocationMetrics.Counter.ALREADY_SENT_SAMPLES,
+                        seriesBuffer.removeSentSamples(sentTimestamps::isSent));
+                metrics.add(InvocationMetrics.Counter.OUT_OF_ORDER_SAMPLES,
+                        seriesBuffer.countSamplesBefore(series -> sentTimestamps.get(series.fingerprint())));
+            }
+            metrics.addTime(InvocationMetrics.Timer.AGGREGATE, System.nanoTime() - aggregateStart);
+            metrics.add(InvocationMetrics.Counter.SERIES, seriesBuffer.seriesCount());
+            metrics.add(InvocationMetrics.Counter.SAMPLES, seriesBuffer.sampleCount());
+
+            // Requests parked by earlier invocations go first, keeping each series in timestamp
+            // order, with at most half of the time left
+            if (sendQueue.isEnabled()) {
+                long flushStart = System.nanoTime();
+                flushParkedRequests(flushStart + (deadlineNanos - flushStart) / 2);
+                metrics.addTime(InvocationMetrics.Timer.SEND, System.nanoTime() - flushStart);
+            }
+
+            if (!seriesBuffer.isEmpty()) {
+                // Encode the buffered series into snappy-compressed remote-write protobuf requests,
+                // sized and sharded from how AMP answered the previous ones
+                long encodeStart = System.nanoTime();
+                List<RemoteWriteEncoder.Request> requests =
+                        remoteWriteEncoder.encode(seriesBuffer, shardSizer.samplesPerRequest());
+                List<List<RemoteWriteEncoder.Request>> shards = RemoteWriteEncoder.shard(requests, shardSizer.shards());
+                metrics.addTime(InvocationMetrics.Timer.ENCODE, System.nanoTime() - encodeStart);
+                for (RemoteWriteEncoder.Request request : requests) {
+                    metrics.add(InvocationMetrics.Counter.PAYLOAD_BYTES, request.getBodySize());
+                }
+                metrics.add(InvocationMetrics.Counter.SHARDS, shards.size());
+                metrics.add(InvocationMetrics.Counter.SAMPLES_PER_REQUEST, shardSizer.samplesPerRequest());
+
+                long sendStart = System.nanoTime();
+                BitSet failedRecords = pushMetricsToPrometheus(shards, deadlineNanos);
+                metrics.addTime(InvocationMetrics.Timer.SEND, System.nanoTime() - sendStart);
+                for (int i = failedRecords.nextSetBit(0); i >= 0; i = failedRecords.nextSetBit(i + 1)) {
+                    results[i] = KinesisFirehoseResponse.Result.ProcessingFailed;
+                }
+            }
+
+            if (!lateSeriesBuffer.isEmpty()) {
+                writeLateSamples(results);
+            }
+        } catch (Exception e) {
+            log.error(() -> "Error pushing metrics to Prometheus: " + e);
+            for (int i = 0; i < results.length; i++) {
+                if (results[i] == KinesisFirehoseResponse.Result.Ok) {
+                    results[i] = KinesisFirehoseResponse.Result.ProcessingFailed;
                 }
             }
+        } finally {
+            seriesBuffer.clear();
+            lateSeriesBuffer.clear();
         }
-        
-        
 
+        List<KinesisFirehoseResponse.Record> responseRecords = new ArrayList<>(records.size());
+        for (int i = 0; i < records.size(); i++) {
+            responseRecords.add(KinesisFirehoseResponse.Record.of(records.get(i), results[i]));
+            if (results[i] == KinesisFirehoseResponse.Result.Dropped) {
+                metrics.increment(InvocationMetrics.Counter.DROPPED_RECORDS);
+            } else if (results[i] == KinesisFirehoseResponse.Result.ProcessingFailed) {
+                metrics.increment(InvocationMetrics.Counter.FAILED_RECORDS);
+            }
+        }
+        metrics.add(InvocationMetrics.Counter.SPILL_BYTES, sendQueue.spilledBytes());
+        metrics.addTime(InvocationMetrics.Timer.TOTAL, System.nanoTime() - startNanos);
+
+        // One summary line and one embedded metric format line per invocation
+        droppedRecordLog.flush();
+        sendErrorLog.flush();
+        log.info(() -> "records=" + metrics.get(InvocationMetrics.Counter.RECORDS)
+                + " series=" + metrics.get(InvocationMetrics.Counter.SERIES)
+                + " limitedSeries=" + metrics.get(InvocationMetrics.Counter.LIMITED_SERIES)
+                + " late=" + metrics.get(InvocationMetrics.Counter.LATE_SAMPLES)
+                + " alreadySent=" + metrics.get(InvocationMetrics.Counter.ALREADY_SENT_SAMPLES)
+                + " outOfOrder=" + metrics.get(InvocationMetrics.Counter.OUT_OF_ORDER_SAMPLES)
+                + " bytes=" + metrics.get(InvocationMetrics.Counter.PAYLOAD_BYTES)
+                + " dropped=" + metrics.get(InvocationMetrics.Counter.DROPPED_RECORDS)
+                + " failed=" + metrics.get(InvocationMetrics.Counter.FAILED_RECORDS)
+                + " spilled=" + metrics.get(InvocationMetrics.Counter.SPILLED_REQUESTS)
+                + " flushed=" + metrics.get(InvocationMetrics.Counter.FLUSHED_REQUESTS)
+                + " durationMs=" + metrics.millis(InvocationMetrics.Timer.TOTAL));
+        if (config.isEmfEnabled()) {
+            log.emit(metrics.toEmf(context.getFunctionName(), invocationTime));
+        }
+
+        KinesisFirehoseResponse response = new KinesisFirehoseResponse();
         response.setRecords(responseRecords);
         return response;
     }
 
-    public String createMetricNameLabel(String name, Values value) {
+    private void processPartition(Partition partition, List<KinesisFirehoseEvent.Record> records, int from, int to,
+                                  KinesisFirehoseResponse.Result[] results, long invocationTime) {
+        for (int i = from; i < to; i++) {
+            KinesisFirehoseEvent.Record record = records.get(i);
+            try {
+                // Stream the newline-delimited metrics straight out of the record buffer. The whole
+                // record is decoded before converting so a malformed record contributes no series.
+                partition.pending.clear();
+                long decodeStart = System.nanoTime();
+                metricStreamDecoder.decode(record.getData(), partition.pending::add);
+                metrics.addTime(InvocationMetrics.Timer.DECODE, System.nanoTime() - decodeStart);
+
+                for (MetricStreamData metricStreamData : partition.pending) {
+                    if (metricStreamData.getMetricName() == null || metricStreamData.getValue() == null) {
+                        throw new IllegalArgumentException("Metric without name or value in record " + record.getRecordId());
+                    }
+                }
+                log.debug(() -> "Record " + record.getRecordId() + ": " + partition.pending.size() + " metrics");
+
+                long convertStart = System.nanoTime();
+                for (MetricStreamData metricStreamData : partition.pending) {
+                    addSeries(partition, metricStreamData, invocationTime, i);
+                }
+                metrics.addTime(InvocationMetrics.Timer.CONVERT, System.nanoTime() - convertStart);
+            } catch (Exception e) {
+                // Malformed JSON or metrics would fail the same way on every retry
+                droppedRecordLog.log(() -> "Dropping record " + record.getRecordId() + ": " + e.getMessage());
+                results[i] = KinesisFirehoseResponse.Result.Dropped;
+            } finally {
+                partition.pending.clear();
+            }
+        }
+    }
 
-        return sanitize(name) + "_" + value.name().toLowerCase();
+    /**
+     * Converts decoded metrics into series and adds them to {@code target}, the way the metrics of a
+     * record are converted during an invocation: relabeled, limited, and one series per statistic and
+     * percentile. For benchmarks of the conversion on its own; not to be called during an invocation.
+     */
+    public void addSeries(List<MetricStreamData> metricStreamData, SeriesBuffer target, long invocationTime) {
+        Partition partition = partitions[0];
+        try {
+            for (int i = 0; i < metricStreamData.size(); i++) {
+                addSeries(partition, metricStreamData.get(i), invocationTime, i);
+            }
+            target.addAll(partition.seriesBuffer);
+        } finally {
+            partition.clear();
+        }
+    }
 
+    public String createMetricNameLabel(String name, Values value) {
+        return statisticNames(sanitize(name))[value.ordinal()];
+    }
+
+    // Bounded like the sanitizer cache; names past the bound are built on every call
+    private String[] statisticNames(String sanitizedMetricName) {
+        String[] names = statisticNames.get(sanitizedMetricName);
+        if (names == null) {
+            names = new String[STATISTICS.length];
+            for (Values statistic : STATISTICS) {
+                names[statistic.ordinal()] = sanitizedMetricName + statistic.suffix;
+            }
+            if (statisticNames.size() < config.getSanitizerCacheSize()) {
+                statisticNames.put(sanitizedMetricName, names);
+            }
+        }
+        return names;
     }
 
     public String createNamespaceLabel(String input) {
+        return sanitize(input);
+    }
 
-        // Implementation of createNamespaceLabel method
+    // Labels shared by every series of a metric: the relabeled dimensions, namespace, account and
+    // region. Fills the partition's labelScratch with name/value pairs and returns the number of labels.
+    private int createSeriesLabels(Partition partition, MetricStreamData metricStreamData) {
+        // Room for the dimensions, the three metric labels and the quantile label
+        int capacity = (metricStreamData.dimensionCount() + 4) * 2;
+        if (partition.labelScratch.length < capacity) {
+            partition.labelScratch = new String[capacity];
+        }
 
-        return input.replaceAll("[^a-zA-Z0-9]", "_");
+        LabelRules.Namespace rules = labelRules.forNamespace(metricStreamData.getNamespace());
+        int count = 0;
+        for (int i = 0; i < metricStreamData.dimensionCount(); i++) {
+            String dimension = metricStreamData.dimensionName(i);
+            LabelRules.Rule rule = rules.ruleFor(dimension);
+            switch (rule.getAction()) {
+                case DROP:
+                    break;
+                case RENAME:
+                    count = putDimensionLabel(partition, count, rule.getLabel(),
+                            sanitize(metricStreamData.dimensionValue(i)));
+                    break;
+                case HASH:
+                    count = putDimensionLabel(partition, count, dimensionLabel(dimension),
+                            rule.bucket(metricStreamData.dimensionValue(i)));
+                    break;
+                default:
+                    count = putDimensionLabel(partition, count, dimensionLabel(dimension),
+                            sanitize(metricStreamData.dimensionValue(i)));
+                    break;
+            }
+        }
+        if (metricStreamData.getNamespace() != null) {
+            count = putLabel(partition, count, NAMESPACE_LABEL, createNamespaceLabel(metricStreamData.getNamespace()));
+        }
+        if (metricStreamData.getAccountID() != null) {
+            count = putLabel(partition, count, ACCOUNT_LABEL, metricStreamData.getAccountID());
+        }
+        if (metricStreamData.getRegion() != null) {
+            count = putLabel(partition, count, REGION_LABEL, metricStreamData.getRegion());
+        }
+        return count;
+    }
 
+    private String dimensionLabel(String dimension) {
+        String name = sanitize(dimension);
+        String reserved = RESERVED_DIMENSION_LABELS.get(name);
+        return reserved != null ? reserved : name;
     }
 
-        public Map<String, String> createDimensionLabels(Map<String, String> dimensions) {
+    // Remote write rejects a series with the same label twice, e.g. from the dimensions "a-b" and
+    // "a_b" or a rename onto another dimension's name; the first one wins
+    private static int putDimensionLabel(Partition partition, int count, String name, String value) {
+        if (indexOfLabel(partition, count, name) >= 0) {
+            return count;
+        }
+        return putLabel(partition, count, name, value);
+    }
 
-        Map<String, String> sanitizedDimensions = new HashMap<>();
+    private static int indexOfLabel(Partition partition, int count, String name) {
+        for (int i = 0; i < count; i++) {
+            if (partition.labelScratch[i * 2].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
 
-        for (Map.Entry<String, String> entry : dimensions.entrySet()) {
+    private static int putLabel(Partition partition, int count, String name, String value) {
+        partition.labelScratch[count * 2] = name;
+        partition.labelScratch[count * 2 + 1] = value;
+        return count + 1;
+    }
 
-            sanitizedDimensions.put(sanitize(entry.getKey()), sanitize(entry.getValue()));
+    private void addSeries(Partition partition, MetricStreamData metricStreamData, long invocationTime, int source) {
+        Value value = metricStreamData.getValue();
+        long timestamp = metricStreamData.getTimestamp() > 0 ? metricStreamData.getTimestamp() : invocationTime;
+        SeriesBuffer target = partition.seriesBuffer;
+        if (config.getOutOfOrderWindowMillis() > 0 && timestamp < invocationTime - config.getOutOfOrderWindowMillis()) {
+            // Too old for AMP to take, which would reject the whole request
+            metrics.add(InvocationMetrics.Counter.LATE_SAMPLES, STATISTICS.length + value.percentileCount());
+            if (lateSampleSink == null) {
+                return;
+            }
+            target = partition.lateSeriesBuffer;
+        }
 
+        int labelCount = createSeriesLabels(partition, metricStreamData);
+        if (seriesLimiter.isEnabled() && !seriesLimiter.admit(metricStreamData.getNamespace(),
+                metricStreamData.getMetricName(), SeriesLimiter.seriesHash(partition.labelScratch, labelCount))) {
+            // Every series this metric would have produced
+            metrics.add(InvocationMetrics.Counter.LIMITED_SERIES, STATISTICS.length + value.percentileCount());
+            return;
         }
 
-        return sanitizedDimensions;
+        // One series per statistic of the CloudWatch statistic set: <name>_count, _sum, _max and _min
+        String sanitizedMetricName = sanitize(metricStreamData.getMetricName());
+        String[] names = statisticNames(sanitizedMetricName);
+        for (Values statistic : STATISTICS) {
+            target.add(names[statistic.ordinal()], partition.labelScratch, labelCount, statistic.aggregation,
+                    timestamp, statistic.of(value), source);
+        }
 
+        // Percentiles become summary-style series: <name>{quantile="0.99"}. They cannot be
+        // combined, so downsampling keeps the last one of a window.
+        for (int i = 0; i < value.percentileCount(); i++) {
+            // The buffer sorts the pairs in place, so the shared labels are rebuilt for each quantile
+            int quantileLabelCount = createSeriesLabels(partition, metricStreamData);
+            putLabel(partition, quantileLabelCount, QUANTILE_LABEL, quantileOf(value.percentileName(i)));
+            target.add(sanitizedMetricName, partition.labelScratch, quantileLabelCount + 1,
+                    timestamp, value.percentileValue(i), source);
+        }
     }
 
-    public Map<String, String> createCustomLabels(String labels) {
-
-        Map<String, String> labelMap = new HashMap<>();
+    // "p99" -> "0.99", "p99.9" -> "0.999"
+    static String quantileOf(String percentile) {
+        String quantile = QUANTILES.get(percentile);
+        if (quantile == null) {
+            quantile = new BigDecimal(percentile.substring(1)).movePointLeft(2).stripTrailingZeros().toPlainString();
+            if (QUANTILES.size() < MAX_QUANTILES) {
+                QUANTILES.put(percentile, quantile);
+            }
+        }
+        return quantile;
+    }
 
-        String[] pairs = labels.split(",");
+    // Sends every request, retrying failed ones, and returns the records of those that never succeeded.
+    // Shards are sent concurrently, the requests of a shard one after the other and in order.
+    private BitSet pushMetricsToPrometheus(List<List<RemoteWriteEncoder.Request>> shards, long deadlineNanos) {
+        BitSet failedRecords = new BitSet();
 
-        for (String pair : pairs) {
+        if (shards.size() == 1) {
+            sendShard(shards.get(0), failedRecords, deadlineNanos);
+            return failedRecords;
+        }
 
-            String[] keyValue = pair.split(":");
+        List<Future<?>> inFlight = new ArrayList<>(shards.size());
+        for (List<RemoteWriteEncoder.Request> shard : shards) {
+            inFlight.add(sendExecutor.submit(() -> sendShard(shard, failedRecords, deadlineNanos)));
+        }
+        awaitAll(inFlight);
+        return failedRecords;
+    }
 
-            if (keyValue.length == 2) {
+    private void sendShard(List<RemoteWriteEncoder.Request> shard, BitSet failedRecords, long deadlineNanos) {
+        boolean failed = false;
+        for (RemoteWriteEncoder.Request request : shard) {
+            try {
+                if (failed) {
+                    // Newer samples of the series of a failed request would land ahead of the failed
+                    // ones, which AMP then rejects as out of order when Firehose redelivers them
+                    markFailed(request, failedRecords);
+                } else {
+                    failed = !sendWithRetry(request, failedRecords, deadlineNanos);
+                }
+            } finally {
+                request.release();
+            }
+        }
+    }
 
-                labelMap.put(keyValue[0], keyValue[1]);
+    // Returns whether the request was sent or parked; its records are marked failed otherwise
+    private boolean sendWithRetry(RemoteWriteEncoder.Request request, BitSet failedRecords, long deadlineNanos) {
+        // Queue up behind the parked requests rather than overtake them or hit a throttling AMP
+        if (sendQueue.isBacklogged(System.currentTimeMillis())) {
+            return park(request, failedRecords);
+        }
+        try {
+            retryPolicy.run(retry -> {
+                metrics.increment(InvocationMetrics.Counter.REQUESTS);
+                if (retry > 0) {
+                    metrics.increment(InvocationMetrics.Counter.RETRIES);
+                }
+                long attemptStart = System.nanoTime();
+                try {
+                    remoteWriteSender.send(request.getBody(), metrics);
+                } catch (IOException e) {
+                    shardSizer.onFailure(e, request.getSampleCount());
+                    throw e;
+                }
+                shardSizer.onSuccess(System.nanoTime() - attemptStart);
+            }, deadlineNanos);
+            recordSent(request);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            markFailed(request, failedRecords);
+            return false;
+        } catch (IOException e) {
+            sendErrorLog.log(() -> "Error pushing metrics to Prometheus: " + e.getMessage());
+            if (sendQueue.isEnabled() && RetryPolicy.isRetryable(e)) {
+                sendQueue.throttle(e, System.currentTimeMillis());
+                return park(request, failedRecords);
+            }
+            markFailed(request, failedRecords);
+            return false;
+        }
+    }
 
+    // The records of a parked request are Ok: it is sent by a later invocation
+    private boolean park(RemoteWriteEncoder.Request request, BitSet failedRecords) {
+        try {
+            if (sendQueue.park(request.getBody(), metrics)) {
+                recordSent(request);
+                return true;
             }
+        } catch (IOException e) {
+            sendErrorLog.log(() -> "Error parking remote-write request: " + e.getMessage());
+        }
+        markFailed(request, failedRecords);
+        return false;
+    }
 
+    // Parked requests count as sent: they go out before anything newer
+    private void recordSent(RemoteWriteEncoder.Request request) {
+        for (int i = 0; i < request.seriesCount(); i++) {
+            sentTimestamps.update(request.series(i), request.sampleFrom(i), request.sampleTo(i));
         }
+    }
 
-        return labelMap;
+    // Samples older than the out-of-order window go to the overflow sink, to be backfilled out of
+    // band; the records of a request the sink did not take fail
+    private void writeLateSamples(KinesisFirehoseResponse.Result[] results) throws IOException {
+        lateSeriesBuffer.aggregate(0);
+        for (RemoteWriteEncoder.Request request : remoteWriteEncoder.encode(lateSeriesBuffer)) {
+            try {
+                lateSampleSink.write(request.getBody());
+                metrics.increment(InvocationMetrics.Counter.OVERFLOW_REQUESTS);
+            } catch (IOException e) {
+                sendErrorLog.log(() -> "Error writing late samples: " + e.getMessage());
+                BitSet records = request.getRecords();
+                for (int i = records.nextSetBit(0); i >= 0; i = records.nextSetBit(i + 1)) {
+                    results[i] = KinesisFirehoseResponse.Result.ProcessingFailed;
+                }
+            } finally {
+                request.release();
+            }
+        }
+    }
 
+    private void flushParkedRequests(long deadlineNanos) {
+        try {
+            SendQueue.FlushResult result = sendQueue.flush(body -> {
+                metrics.increment(InvocationMetrics.Counter.REQUESTS);
+                remoteWriteSender.send(body, metrics);
+            }, deadlineNanos, metrics);
+            if (result.getRejected() > 0) {
+                log.error(() -> "Dropped " + result.getRejected() + " spilled requests rejected by AMP");
+            }
+        } catch (IOException e) {
+            sendErrorLog.log(() -> "Error reading spilled requests: " + e.getMessage());
+        }
     }
 
-    private List<Gauge> createGauges(MetricStreamData metricStreamData, Context context) {
-        List<Gauge> gauges = new ArrayList<>();
-        String sanitizedMetricName = sanitize(metricStreamData.getMetricName());
+    private static void markFailed(RemoteWriteEncoder.Request request, BitSet failedRecords) {
+        synchronized (failedRecords) {
+            failedRecords.or(request.getRecords());
+        }
+    }
 
-        // Log the sanitized metric name
-        context.getLogger().log("Sanitized Metric Name: " + sanitizedMetricName);
-
-        Gauge countGauge = Gauge.build()
-                .name(sanitizedMetricName + "_count")
-                .help("Count of " + sanitizedMetricName)
-                .register();
-        countGauge.set(metricStreamData.getValue().getCount());
-        gauges.add(countGauge);
-
-
-        return gauges;
-    }
-
-
-    private void pushMetricsToPrometheus(List<Gauge> gauges) throws Exception {
-            String prometheusRemoteWriteUrl = System.getenv("PROMETHEUS_REMOTE_WRITE_URL");
-            String awsRegion = System.getenv("AWS_REGION");
-            String awsAmpRoleArn = System.getenv("AWS_AMP_ROLE_ARN");
-    
-            // AWS Credentials Provider
-   
-            AwsCredentialsProvider credentialsProvider = StsAssumeRoleCredentialsProvider.builder()
-            .stsClient(StsClient.create())
-            .refreshRequest(builder -> builder.roleArn(awsAmpRoleArn)
-                                            .roleSessionName("aps"))
-                                            .build();
-            AwsCredentials creds=credentialsProvider.resolveCredentials();
-
-            
-    
-            // Prepare AwsV4HttpSigner
-            AwsV4HttpSigner signer = AwsV4HttpSigner.create();
-            Aws4SignerParams signerParams = Aws4SignerParams.builder()
-                    .awsCredentials(credentialsProvider.resolveCredentials())
-                    .signingName("aps")
-                    .signingRegion(Region.of(awsRegion))
-                    .build();
-    
-            for (Gauge gauge : gauges) {
-                // Serialize gauge metrics to text format
-                StringWriter writer = new StringWriter();
-                Enumeration<Collector.MetricFamilySamples> mfs = Collections.enumeration(gauge.collect());
-                TextFormat.write004(writer, mfs);
-                byte[] body = writer.toString().getBytes();
-
-                SdkHttpClient httpClient = ApacheHttpClient.create();
-    
-                // Build the unsigned SDK HTTP request
-                SdkHttpFullRequest sdkRequest = SdkHttpFullRequest.builder()
-                        .uri(URI.create(prometheusRemoteWriteUrl))
-                        .method(SdkHttpMethod.POST)
-                        .putHeader("Content-Type", "application/x-protobuf")
-                        .putHeader("Content-Encoding", "snappy")
-                        .putHeader("X-Prometheus-Remote-Write-Version", "0.1.0")
-                        .contentStreamProvider(() -> new ByteArrayInputStream(body)) // Stream recreated for each request
-                        .build();
-
-                // Sign the request
-                SignedRequest signedRequest = signer.sign(r -> r.identity(creds)
-                        .request(sdkRequest)
-                        .putProperty(AwsV4HttpSigner.SERVICE_SIGNING_NAME, "aps")
-                        .putProperty(AwsV4HttpSigner.REGION_NAME, "eu-north-1"));
-
-                       HttpExecuteRequest httpExecuteRequest =HttpExecuteRequest.builder()
-                                .request(signedRequest.request())
-                                .contentStreamProvider(signedRequest.payload().orElse(null))
-                                .build();
-
-                HttpExecuteResponse response = httpClient.prepareRequest(httpExecuteRequest).call();
-    
-                // Build the HTTP request from the signed SDK request
-                // HttpRequest httpRequest = HttpRequest.newBuilder()
-                //         .uri(signedRequest.request().getUri())
-                //         .method("POST", HttpRequest.BodyPublishers.ofByteArray(body))
-                //         .build();
-    
-                // // Send the request
-                // HttpResponse<String> response = client.send(httpRequest, HttpResponse.BodyHandlers.ofString());
-    
-                // Check for errors
-                if (response.httpResponse().statusCode() != 200) {
-                    throw new RuntimeException("Request to AMP failed with status: " + response.httpResponse().statusCode() +
-                            ", body: " + response.responseBody());
+    // Waits for every task, rethrowing the first failure once all of them are done
+    private static void awaitAll(List<Future<?>> futures) {
+        RuntimeException failure = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for tasks", e);
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof RuntimeException
+                            ? (RuntimeException) e.getCause()
+                            : new RuntimeException(e.getCause());
                 }
             }
         }
-    
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static Partition[] createPartitions(int count) {
+        Partition[] partitions = new Partition[count];
+        for (int i = 0; i < count; i++) {
+            partitions[i] = new Partition();
+        }
+        return partitions;
+    }
+
+    private static ThreadFactory daemonThreadFactory(String name) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
 
     public String sanitize(String input) {
-        return input.replaceAll("[^a-zA-Z0-9_]", "_");
+        return metricNameSanitizer.sanitize(input);
+    }
+
+    // State of one worker: the series of a contiguous range of records
+    private static final class Partition {
+        private final SeriesBuffer seriesBuffer = new SeriesBuffer();
+        private final SeriesBuffer lateSeriesBuffer = new SeriesBuffer();
+        // Metrics of the record being decoded
+        private final List<MetricStreamData> pending = new ArrayList<>();
+        private String[] labelScratch = new String[32];
+
+        void clear() {
+            seriesBuffer.clear();
+            lateSeriesBuffer.clear();
+            pending.clear();
+        }
     }
 
     // MetricStreamData class
-    @JsonIgnoreProperties(ignoreUnknown = true)
     public static class MetricStreamData {
+        private static final String[] NO_DIMENSIONS = new String[0];
+
         private String metricStreamName;
         private String accountID;
         private String region;
         private String namespace;
         private String metricName;
-        private Map<String, Object> dimensions;
+        // Sorted by name: name0, value0, name1, value1, ...
+        private String[] dimensions = NO_DIMENSIONS;
         private long timestamp;
         private Value value;
         private String unit;
@@ -286,8 +787,10 @@ public class LambdaHandler implements RequestHandler<KinesisFirehoseEvent, Lambd
         public String getMetricName() { return metricName; }
         public void setMetricName(String metricName) { this.metricName = metricName; }
 
-        public Map<String, Object> getDimensions() { return dimensions; }
-        public void setDimensions(Map<String, Object> dimensions) { this.dimensions = dimensions; }
+        public int dimensionCount() { return dimensions.length / 2; }
+        public String dimensionName(int index) { return dimensions[index * 2]; }
+        public String dimensionValue(int index) { return dimensions[index * 2 + 1]; }
+        void setDimensions(String[] dimensions) { this.dimensions = dimensions; }
 
         public long getTimestamp() { return timestamp; }
         public void setTimestamp(long timestamp) { this.timestamp = timestamp; }
@@ -301,10 +804,17 @@ public class LambdaHandler implements RequestHandler<KinesisFirehoseEvent, Lambd
 
     // Value class
     public static class Value {
+        private static final String[] NO_PERCENTILE_NAMES = new String[0];
+        private static final double[] NO_PERCENTILE_VALUES = new double[0];
+
         private double count;
         private double sum;
         private double max;
         private double min;
+        // Percentiles requested as additional statistics of the stream, e.g. "p99" or "p99.9"
+        private String[] percentileNames = NO_PERCENTILE_NAMES;
+        private double[] percentileValues = NO_PERCENTILE_VALUES;
+        private int percentileCount;
 
         public double getCount() {
             return count;
@@ -337,6 +847,39 @@ public class LambdaHandler implements RequestHandler<KinesisFirehoseEvent, Lambd
         public void setMin(double min) {
             this.min = min;
         }
+
+        public int percentileCount() { return percentileCount; }
+
+        public String percentileName(int index) { return percentileNames[index]; }
+
+        public double percentileValue(int index) { return percentileValues[index]; }
+
+        public void addPercentile(String name, double value) {
+            if (percentileCount == percentileNames.length) {
+                percentileNames = Arrays.copyOf(percentileNames, Math.max(2, percentileCount * 2));
+                percentileValues = Arrays.copyOf(percentileValues, percentileNames.length);
+            }
+            percentileNames[percentileCount] = name;
+            percentileValues[percentileCount] = value;
+            percentileCount++;
+        }
+
+        // "p" followed by a number, e.g. "p99" or "p99.9"
+        static boolean isPercentile(String name) {
+            if (name.length() < 2 || name.charAt(0) != 'p') {
+                return false;
+            }
+            int dot = -1;
+            for (int i = 1; i < name.length(); i++) {
+                char c = name.charAt(i);
+                if (c == '.' && dot < 0 && i > 1) {
+                    dot = i;
+                } else if (c < '0' || c > '9') {
+                    return false;
+                }
+            }
+            return dot != name.length() - 1;
+        }
     }
 
     // KinesisFirehoseResponse class
@@ -354,6 +897,18 @@ public class LambdaHandler implements RequestHandler<KinesisFirehoseEvent, Lambd
         public static class Record {
             private String recordId;
             private Result result;
+            private String data;
+
+            // Firehose expects the (unchanged) record data back, base64-encoded
+            static Record of(KinesisFirehoseEvent.Record record, Result result) {
+                Record responseRecord = new Record();
+                responseRecord.setRecordId(record.getRecordId());
+                responseRecord.setResult(result);
+                ByteBuffer encoded = Base64.getEncoder().encode(record.getData().duplicate());
+                responseRecord.setData(new String(encoded.array(), encoded.arrayOffset(), encoded.remaining(),
+                        StandardCharsets.ISO_8859_1));
+                return responseRecord;
+            }
 
             public String getRecordId() {
                 return recordId;
@@ -370,6 +925,14 @@ public class LambdaHandler implements RequestHandler<KinesisFirehoseEvent, Lambd
             public void setResult(Result result) {
                 this.result = result;
             }
+
+            public String getData() {
+                return data;
+            }
+
+            public void setData(String data) {
+                this.data = data;
+            }
         }
 
         public enum Result {
@@ -378,6 +941,29 @@ public class LambdaHandler implements RequestHandler<KinesisFirehoseEvent, Lambd
     }
 
     public enum Values {
-        COUNT, SUM, MAX, MIN
+        COUNT(SeriesBuffer.Aggregation.SUM),
+        SUM(SeriesBuffer.Aggregation.SUM),
+        MAX(SeriesBuffer.Aggregation.MAX),
+        MIN(SeriesBuffer.Aggregation.MIN);
+
+        // How samples of the statistic are combined when downsampling
+        private final SeriesBuffer.Aggregation aggregation;
+        // Appended to the metric name: "_count", "_sum", ...
+        private final String suffix;
+
+        Values(SeriesBuffer.Aggregation aggregation) {
+            this.aggregation = aggregation;
+            this.suffix = "_" + name().toLowerCase(Locale.ROOT);
+        }
+
+        public double of(Value value) {
+            switch (this) {
+                case COUNT: return value.getCount();
+                case SUM: return value.getSum();
+                case MAX: return value.getMax();
+                case MIN: return value.getMin();
+                default: throw new IllegalStateException("Unknown statistic: " + this);
+            }
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,93 @@
+package com.example;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Replaces every character outside {@code [a-zA-Z0-9_]} with {@code _}, the same result as
+ * {@code input.replaceAll("[^a-zA-Z0-9_]", "_")} without compiling a regex on every call.
+ *
+ * Names that are already valid are returned as-is after a single scan. Metric streams repeat the
+ * same few thousand names and dimension values, so the sanitized form of invalid ones is cached
+ * and later lookups do not allocate.
+ *
+ * The cache is a concurrent map, so the processing workers look names up without a lock. Once it
+ * holds {@code maxCacheSize} names it is cleared and refills with the names still in use, which
+ * bounds the memory without tracking recency on every lookup.
+ */
+public class MetricNameSanitizer {
+
+    public static final int DEFAULT_CACHE_SIZE = 8192;
+
+    private final int maxCacheSize;
+    private final Map<String, String> cache;
+
+    public MetricNameSanitizer() {
+        this(DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param maxCacheSize names cached at most; zero disables the cache
+     */
+    public MetricNameSanitizer(int maxCacheSize) {
+        this.maxCacheSize = maxCacheSize;
+        this.cache = new ConcurrentHashMap<>(Math.max(Math.min(maxCacheSize, 1024), 1));
+    }
+
+    public String sanitize(String input) {
+        int firstInvalid = firstInvalidChar(input);
+        if (firstInvalid < 0) {
+            return input;
+        }
+
+        String cached = cache.get(input);
+        if (cached != null) {
+            return cached;
+        }
+
+        String sanitized = replaceInvalidChars(input, firstInvalid);
+        if (maxCacheSize > 0) {
+            // Racing workers may each clear it or overshoot by a few names, both harmless
+            if (cache.size() >= maxCacheSize) {
+                cache.clear();
+            }
+            cache.put(input, sanitized);
+        }
+        return sanitized;
+    }
+
+    int cacheSize() {
+        return cache.size();
+    }
+
+    private static int firstInvalidChar(String input) {
+        for (int i = 0; i < input.length(); i++) {
+            if (!isValid(input.charAt(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String replaceInvalidChars(String input, int firstInvalid) {
+        char[] chars = input.toCharArray();
+        int length = firstInvalid;
+        for (int i = firstInvalid; i < chars.length; i++) {
+            char c = chars[i];
+            if (isValid(c)) {
+                chars[length++] = c;
+            } else {
+                // Like the regex, a surrogate pair is one code point and becomes a single '_'
+                if (Character.isHighSurrogate(c) && i + 1 < chars.length && Character.isLowSurrogate(chars[i + 1])) {
+                    i++;
+                }
+                chars[length++] = '_';
+            }
+        }
+        return new String(chars, 0, length);
+    }
+
+    private static boolean isValid(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+}
@@ -0,0 +1,80 @@
+package com.example;
+
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Streams {@link LambdaHandler.MetricStreamData} objects out of a Firehose record payload written
+ * in one of the CloudWatch Metric Streams output formats.
+ *
+ * Implementations are stateless and shared by the concurrent record workers.
+ */
+public interface MetricStreamDecoder {
+
+    /**
+     * Output format of the metric stream, set with {@code METRIC_STREAM_FORMAT}.
+     */
+    enum Format {
+        JSON("json"),
+        OPENTELEMETRY_0_7("opentelemetry0.7"),
+        // Detects the format of each record
+        AUTO("auto");
+
+        private final String value;
+
+        Format(String value) {
+            this.value = value;
+        }
+
+        static Format parse(String value) {
+            if (value == null || value.trim().isEmpty()) {
+                return AUTO;
+            }
+            String normalized = value.trim().toLowerCase(Locale.ROOT);
+            for (Format format : values()) {
+                if (format.value.equals(normalized)) {
+                    return format;
+                }
+            }
+            throw new IllegalArgumentException("Invalid value for METRIC_STREAM_FORMAT: " + value);
+        }
+    }
+
+    /**
+     * Decodes every metric of the payload, in order, and hands it to {@code consumer}.
+     * The buffer's position is left untouched.
+     *
+     * @throws IOException if the payload is not a valid, optionally gzipped, payload of the format
+     */
+    void decode(ByteBuffer data, Consumer<LambdaHandler.MetricStreamData> consumer) throws IOException;
+
+    static MetricStreamDecoder create(Format format, StringPool stringPool) {
+        switch (format) {
+            case JSON: return new JsonMetricStreamDecoder(stringPool);
+            case OPENTELEMETRY_0_7: return new OtlpMetricStreamDecoder(stringPool);
+            case AUTO: return new FormatDetectingDecoder(
+                    new JsonMetricStreamDecoder(stringPool), new OtlpMetricStreamDecoder(stringPool));
+            default: throw new IllegalStateException("Unknown format: " + format);
+        }
+    }
+
+    static boolean isGzip(ByteBuffer payload) {
+        int position = payload.position();
+        return payload.remaining() >= 2
+                && (payload.get(position) & 0xff) == 0x1f
+                && (payload.get(position + 1) & 0xff) == 0x8b;
+    }
+
+    /**
+     * Inflates a gzipped payload on the fly, reading from the remaining bytes of {@code payload}.
+     */
+    static InputStream gunzip(ByteBuffer payload) throws IOException {
+        return new GZIPInputStream(new ByteBufferBackedInputStream(payload.duplicate()), 8192);
+    }
+}
@@ -0,0 +1,404 @@
+package com.example;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.WireFormat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Decodes the OpenTelemetry 0.7.0 output format of CloudWatch Metric Streams: a sequence of
+ * length-delimited {@code ExportMetricsServiceRequest} messages.
+ *
+ * The messages are read field by field with {@link CodedInputStream} straight from the record
+ * bytes, without generated classes. Only the parts CloudWatch writes are read, everything else
+ * is skipped:
+ *
+ * <pre>
+ * ExportMetricsServiceRequest { repeated ResourceMetrics resource_metrics = 1; }
+ * ResourceMetrics { Resource resource = 1; repeated InstrumentationLibraryMetrics instrumentation_library_metrics = 2; }
+ * Resource { repeated KeyValue attributes = 1; }
+ * KeyValue { string key = 1; AnyValue value = 2; }          AnyValue { string string_value = 1; ... }
+ * InstrumentationLibraryMetrics { repeated Metric metrics = 2; }
+ * Metric { string name = 1; string unit = 3; DoubleSummary double_summary = 11; }
+ * DoubleSummary { repeated DoubleSummaryDataPoint data_points = 1; }
+ * DoubleSummaryDataPoint { repeated StringKeyValue labels = 1; fixed64 time_unix_nano = 3;
+ *                          fixed64 count = 4; double sum = 5; repeated ValueAtQuantile quantile_values = 6; }
+ * ValueAtQuantile { double quantile = 1; double value = 2; }
+ * StringKeyValue { string key = 1; string value = 2; }
+ * </pre>
+ *
+ * CloudWatch puts the account and region in resource attributes, the namespace, metric name and
+ * dimensions in data point labels, and the minimum and maximum in the 0 and 1 quantiles.
+ */
+public class OtlpMetricStreamDecoder implements MetricStreamDecoder {
+
+    private static final String ACCOUNT_ATTRIBUTE = "cloud.account.id";
+    private static final String REGION_ATTRIBUTE = "cloud.region";
+    private static final String NAMESPACE_LABEL = "Namespace";
+    private static final String METRIC_NAME_LABEL = "MetricName";
+
+    private static final String[] NO_DIMENSIONS = new String[0];
+
+    // Tags read, by field number and wire type; a field with an unexpected wire type is skipped
+    private static final int DELIMITED_1 = 1 << 3 | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+    private static final int DELIMITED_2 = 2 << 3 | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+    private static final int DELIMITED_3 = 3 << 3 | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+    private static final int DELIMITED_6 = 6 << 3 | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+    private static final int DELIMITED_11 = 11 << 3 | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+    private static final int FIXED64_1 = 1 << 3 | WireFormat.WIRETYPE_FIXED64;
+    private static final int FIXED64_2 = 2 << 3 | WireFormat.WIRETYPE_FIXED64;
+    private static final int FIXED64_3 = 3 << 3 | WireFormat.WIRETYPE_FIXED64;
+    private static final int FIXED64_4 = 4 << 3 | WireFormat.WIRETYPE_FIXED64;
+    private static final int FIXED64_5 = 5 << 3 | WireFormat.WIRETYPE_FIXED64;
+
+    // Percentile names of the quantiles seen so far, e.g. 0.99 -> "p99". A stream only has a
+    // handful; the bound keeps odd payloads from growing the map.
+    private static final int MAX_PERCENTILE_NAMES = 256;
+    private static final Map<Double, String> PERCENTILE_NAMES = new ConcurrentHashMap<>();
+
+    private final StringPool stringPool;
+
+    public OtlpMetricStreamDecoder() {
+        this(new StringPool());
+    }
+
+    public OtlpMetricStreamDecoder(StringPool stringPool) {
+        this.stringPool = stringPool;
+    }
+
+    @Override
+    public void decode(ByteBuffer data, Consumer<LambdaHandler.MetricStreamData> consumer) throws IOException {
+        ByteBuffer payload = data.duplicate();
+        if (MetricStreamDecoder.isGzip(payload)) {
+            try (InputStream in = MetricStreamDecoder.gunzip(payload)) {
+                decode(in, consumer);
+            }
+        } else if (payload.hasArray()) {
+            decode(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining(), consumer);
+        } else {
+            byte[] bytes = new byte[payload.remaining()];
+            payload.get(bytes);
+            decode(bytes, 0, bytes.length, consumer);
+        }
+    }
+
+    // Decodes an inflated payload, e.g. the rest of a gzipped record whose start was read to detect
+    // its format. The messages are read from an array, so the whole payload is read first.
+    void decode(InputStream in, Consumer<LambdaHandler.MetricStreamData> consumer) throws IOException {
+        byte[] bytes = in.readAllBytes();
+        decode(bytes, 0, bytes.length, consumer);
+    }
+
+    private void decode(byte[] bytes, int offset, int length, Consumer<LambdaHandler.MetricStreamData> consumer)
+            throws IOException {
+        Reader reader = new Reader(bytes, offset, length);
+        CodedInputStream in = reader.in;
+        while (!in.isAtEnd()) {
+            int limit = in.pushLimit(in.readRawVarint32());
+            while (!in.isAtEnd()) {
+                int tag = in.readTag();
+                if (tag == DELIMITED_1) {
+                    int resourceLimit = in.pushLimit(in.readRawVarint32());
+                    reader.readResourceMetrics(consumer);
+                    in.popLimit(resourceLimit);
+                } else {
+                    in.skipField(tag);
+                }
+            }
+            in.popLimit(limit);
+        }
+    }
+
+    // Percentile name of a quantile as the JSON format spells it: 0.99 -> "p99", 0.999 -> "p99.9"
+    static String percentileName(double quantile) {
+        String name = PERCENTILE_NAMES.get(quantile);
+        if (name == null) {
+            name = "p" + BigDecimal.valueOf(quantile).movePointRight(2).stripTrailingZeros().toPlainString();
+            if (PERCENTILE_NAMES.size() < MAX_PERCENTILE_NAMES) {
+                PERCENTILE_NAMES.put(quantile, name);
+            }
+        }
+        return name;
+    }
+
+    // Decoding state of one payload
+    private final class Reader {
+        private final byte[] bytes;
+        private final int offset;
+        private final CodedInputStream in;
+        // Metrics of the current ResourceMetrics, emitted once its attributes are known
+        private final List<LambdaHandler.MetricStreamData> pending = new ArrayList<>();
+        private String[] dimensionScratch = new String[16];
+        private String accountId;
+        private String region;
+
+        private final MessageReader resourceReader = this::readResource;
+        private final MessageReader attributeReader = this::readAttribute;
+        private final MessageReader libraryMetricsReader = this::readInstrumentationLibraryMetrics;
+        private final MessageReader metricReader = this::readMetric;
+        private final MessageReader summaryReader = this::readDoubleSummary;
+        private final MessageReader dataPointReader = this::readDataPoint;
+
+        Reader(byte[] bytes, int offset, int length) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.in = CodedInputStream.newInstance(bytes, offset, length);
+            // Records are at most a few MB, the limit only guards against corrupt lengths
+            this.in.setSizeLimit(Integer.MAX_VALUE);
+        }
+
+        void readResourceMetrics(Consumer<LambdaHandler.MetricStreamData> consumer) throws IOException {
+            accountId = null;
+            region = null;
+            pending.clear();
+            while (!in.isAtEnd()) {
+                int tag = in.readTag();
+                switch (tag) {
+                    case DELIMITED_1:
+                        readMessage(resourceReader);
+                        break;
+                    case DELIMITED_2:
+                        readMessage(libraryMetricsReader);
+                        break;
+                    default:
+                        in.skipField(tag);
+                }
+            }
+            for (LambdaHandler.MetricStreamData metric : pending) {
+                metric.setAccountID(accountId);
+                metric.setRegion(region);
+                consumer.accept(metric);
+            }
+            pending.clear();
+        }
+
+        private void readResource() throws IOException {
+            while (!in.isAtEnd()) {
+                int tag = in.readTag();
+                if (tag == DELIMITED_1) {
+                    readMessage(attributeReader);
+                } else {
+                    in.skipField(tag);
+                }
+            }
+        }
+
+        private void readAttribute() throws IOException {
+            String key = null;
+            String value = null;
+            while (!in.isAtEnd()) {
+                int tag = in.readTag();
+                switch (tag) {
+                    case DELIMITED_1:
+                        key = readString();
+                        break;
+                    case DELIMITED_2:
+                        value = readAnyValueString();
+                        break;
+                    default:
+                        in.skipField(tag);
+                }
+            }
+            if (ACCOUNT_ATTRIBUTE.equals(key)) {
+                accountId = value;
+            } else if (REGION_ATTRIBUTE.equals(key)) {
+                region = value;
+            }
+        }
+
+        // The string_value of an AnyValue, null for other value types
+        private String readAnyValueString() throws IOException {
+            int limit = in.pushLimit(in.readRawVarint32());
+            String value = null;
+            while (!in.isAtEnd()) {
+                int tag = in.readTag();
+                if (tag == DELIMITED_1) {
+                    value = readString();
+                } else {
+                    in.skipField(tag);
+                }
+            }
+            in.popLimit(limit);
+            return value;
+        }
+
+        private void readInstrumentationLibraryMetrics() throws IOException {
+            while (!in.isAtEnd()) {
+                int tag = in.readTag();
+                if (tag == DELIMITED_2) {
+                    readMessage(metricReader);
+                } else {
+                    in.skipField(tag);
+                }
+            }
+        }
+
+        private void readMetric() throws IOException {
+            String name = null;
+            String unit = null;
+            int firstDataPoint = pending.size();
+            while (!in.isAtEnd()) {
+                int tag = in.readTag();
+                switch (tag) {
+                    case DELIMITED_1:
+                        name = readString();
+                        break;
+                    case DELIMITED_3:
+                        unit = readString();
+                        break;
+                    case DELIMITED_11:
+                        readMessage(summaryReader);
+                        break;
+                    default:
+                        // Metric streams only write summaries
+                        in.skipField(tag);
+                }
+            }
+            for (int i = firstDataPoint; i < pending.size(); i++) {
+                LambdaHandler.MetricStreamData metric = pending.get(i);
+                metric.setUnit(unit);
+                if (metric.getMetricName() == null && name != null) {
+                    // "amazonaws.com/AWS/DynamoDB/ConsumedReadCapacityUnits"
+                    metric.setMetricName(name.substring(name.lastIndexOf('/') + 1));
+                }
+            }
+        }
+
+        private void readDoubleSummary() throws IOException {
+            while (!in.isAtEnd()) {
+                int tag = in.readTag();
+                if (tag == DELIMITED_1) {
+                    readMessage(dataPointReader);
+                } else {
+                    in.skipField(tag);
+                }
+            }
+        }
+
+        private void readDataPoint() throws IOException {
+            LambdaHandler.MetricStreamData metric = new LambdaHandler.MetricStreamData();
+            LambdaHandler.Value value = new LambdaHandler.Value();
+            int dimensionCount = 0;
+            while (!in.isAtEnd()) {
+                int tag = in.readTag();
+                switch (tag) {
+                    case DELIMITED_1:
+                        dimensionCount = readLabel(metric, dimensionCount);
+                        break;
+                    case FIXED64_3:
+                        metric.setTimestamp(in.readFixed64() / 1_000_000);
+                        break;
+                    case FIXED64_4:
+                        value.setCount(in.readFixed64());
+                        break;
+                    case FIXED64_5:
+                        value.setSum(in.readDouble());
+                        break;
+                    case DELIMITED_6:
+                        readQuantile(value);
+                        break;
+                    default:
+                        in.skipField(tag);
+                }
+            }
+            SeriesBuffer.sortLabels(dimensionScratch, dimensionCount);
+            metric.setDimensions(dimensionCount == 0 ? NO_DIMENSIONS : Arrays.copyOf(dimensionScratch, dimensionCount * 2));
+            metric.setValue(value);
+            pending.add(metric);
+        }
+
+        // Namespace and MetricName labels go to their fields, the others are dimensions
+        private int readLabel(LambdaHandler.MetricStreamData metric, int dimensionCount) throws IOException {
+            int limit = in.pushLimit(in.readRawVarint32());
+            String key = null;
+            String value = null;
+            while (!in.isAtEnd()) {
+                int tag = in.readTag();
+                switch (tag) {
+                    case DELIMITED_1:
+                        key = readString();
+                        break;
+                    case DELIMITED_2:
+                        value = readString();
+                        break;
+                    default:
+                        in.skipField(tag);
+                }
+            }
+            in.popLimit(limit);
+
+            if (key == null) {
+                return dimensionCount;
+            }
+            if (NAMESPACE_LABEL.equals(key)) {
+                metric.setNamespace(value);
+                return dimensionCount;
+            }
+            if (METRIC_NAME_LABEL.equals(key)) {
+                metric.setMetricName(value);
+                return dimensionCount;
+            }
+            if (dimensionCount * 2 == dimensionScratch.length) {
+                dimensionScratch = Arrays.copyOf(dimensionScratch, dimensionScratch.length * 2);
+            }
+            dimensionScratch[dimensionCount * 2] = key;
+            dimensionScratch[dimensionCount * 2 + 1] = value != null ? value : "";
+            return dimensionCount + 1;
+        }
+
+        private void readQuantile(LambdaHandler.Value value) throws IOException {
+            int limit = in.pushLimit(in.readRawVarint32());
+            double quantile = 0;
+            double quantileValue = 0;
+            while (!in.isAtEnd()) {
+                int tag = in.readTag();
+                switch (tag) {
+                    case FIXED64_1:
+                        quantile = in.readDouble();
+                        break;
+                    case FIXED64_2:
+                        quantileValue = in.readDouble();
+                        break;
+                    default:
+                        in.skipField(tag);
+                }
+            }
+            in.popLimit(limit);
+
+            if (quantile == 0) {
+                value.setMin(quantileValue);
+            } else if (quantile == 1) {
+                value.setMax(quantileValue);
+            } else {
+                value.addPercentile(percentileName(quantile), quantileValue);
+            }
+        }
+
+        // Strings are pooled straight from the record bytes
+        private String readString() throws IOException {
+            int length = in.readRawVarint32();
+            int start = offset + in.getTotalBytesRead();
+            in.skipRawBytes(length);
+            return stringPool.intern(bytes, start, length);
+        }
+
+        private void readMessage(MessageReader reader) throws IOException {
+            int limit = in.pushLimit(in.readRawVarint32());
+            reader.read();
+            in.popLimit(limit);
+        }
+    }
+
+    private interface MessageReader {
+        void read() throws IOException;
+    }
+}
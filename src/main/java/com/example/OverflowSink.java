@@ -0,0 +1,20 @@
+package com.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Last resort for remote-write request bodies that AMP did not take and the spill file has no room
+ * for. Once written, the records of the request are reported {@code Ok} to Firehose.
+ *
+ * See {@link S3OverflowSink}; tests can pass their own to {@link LambdaHandler}.
+ */
+@FunctionalInterface
+public interface OverflowSink {
+
+    /**
+     * Stores one snappy-compressed {@code WriteRequest} body, from its position to its limit,
+     * durably. The buffer is only valid during the call.
+     */
+    void write(ByteBuffer body) throws IOException;
+}
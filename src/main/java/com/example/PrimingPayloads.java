@@ -0,0 +1,119 @@
+package com.example;
+
+import com.google.protobuf.CodedOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Record payloads used by {@link LambdaHandler#prime()}: the same metric, with every field and
+ * statistic the handler reads, in each metric stream output format.
+ */
+final class PrimingPayloads {
+
+    static final byte[] JSON = ("{\"metric_stream_name\":\"priming\",\"accountID\":\"000000000000\","
+            + "\"region\":\"us-east-1\",\"namespace\":\"AWS/Priming\",\"metricName\":\"Priming\","
+            + "\"dimensions\":{\"Name\":\"priming\"},\"timestamp\":0,"
+            + "\"value\":{\"max\":1.0,\"min\":1.0,\"sum\":1.0,\"count\":1.0,\"p99\":1.0},\"unit\":\"Count\"}\n")
+            .getBytes(StandardCharsets.UTF_8);
+
+    static final byte[] OPENTELEMETRY_0_7 = otlp();
+
+    private PrimingPayloads() {
+    }
+
+    static byte[] gzip(byte[] payload) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(payload);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    // One length-delimited ExportMetricsServiceRequest, see OtlpMetricStreamDecoder for the schema
+    private static byte[] otlp() {
+        byte[] resource = message(1, concat(
+                attribute("cloud.account.id", "000000000000"),
+                attribute("cloud.region", "us-east-1")));
+        byte[] dataPoint = concat(
+                stringPair(1, "Namespace", "AWS/Priming"),
+                stringPair(1, "MetricName", "Priming"),
+                stringPair(1, "Name", "priming"),
+                fixed64(3, 0),
+                fixed64(4, 1),
+                doubleField(5, 1.0),
+                message(6, concat(doubleField(1, 0.0), doubleField(2, 1.0))),
+                message(6, concat(doubleField(1, 0.99), doubleField(2, 1.0))),
+                message(6, concat(doubleField(1, 1.0), doubleField(2, 1.0))));
+        byte[] metric = concat(
+                string(1, "amazonaws.com/AWS/Priming/Priming"),
+                string(3, "1"),
+                message(11, message(1, dataPoint)));
+        byte[] request = message(1, concat(resource, message(2, message(2, metric))));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            CodedOutputStream coded = CodedOutputStream.newInstance(out);
+            coded.writeUInt32NoTag(request.length);
+            coded.writeRawBytes(request);
+            coded.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] attribute(String key, String value) {
+        return message(1, concat(string(1, key), message(2, string(1, value))));
+    }
+
+    private static byte[] stringPair(int field, String key, String value) {
+        return message(field, concat(string(1, key), string(2, value)));
+    }
+
+    private static byte[] message(int field, byte[] message) {
+        return write(CodedOutputStream.computeByteArraySize(field, message),
+                out -> out.writeByteArray(field, message));
+    }
+
+    private static byte[] string(int field, String value) {
+        return write(CodedOutputStream.computeStringSize(field, value), out -> out.writeString(field, value));
+    }
+
+    private static byte[] fixed64(int field, long value) {
+        return write(CodedOutputStream.computeFixed64Size(field, value), out -> out.writeFixed64(field, value));
+    }
+
+    private static byte[] doubleField(int field, double value) {
+        return write(CodedOutputStream.computeDoubleSize(field, value), out -> out.writeDouble(field, value));
+    }
+
+    private static byte[] write(int size, FieldWriter writer) {
+        byte[] bytes = new byte[size];
+        CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+        try {
+            writer.write(out);
+            out.checkNoSpaceLeft();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.writeBytes(part);
+        }
+        return out.toByteArray();
+    }
+
+    private interface FieldWriter {
+        void write(CodedOutputStream out) throws IOException;
+    }
+}
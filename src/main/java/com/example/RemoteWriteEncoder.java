@@ -0,0 +1,361 @@
+package com.example;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+import org.xerial.snappy.Snappy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Encodes buffered series as Prometheus remote-write {@code WriteRequest} protobuf messages,
+ * snappy-compressed and ready to be sent as the body of a remote-write POST. The samples of each
+ * series must already be in timestamp order, see {@link SeriesBuffer#aggregate(long)}.
+ *
+ * The message is written into a direct buffer and compressed into another, both reused from one
+ * request to the next, and the compressed body is copied into a buffer of the {@link BufferPool}
+ * sized for it, which goes back to the pool with {@link Request#release()} once sent.
+ *
+ * Not thread-safe: the encoder learns the compression ratio of the requests it encodes and owns
+ * its buffers.
+ *
+ * The message is written by hand with {@link CodedOutputStream} so we do not need generated
+ * classes for the (tiny) remote-write schema:
+ *
+ * <pre>
+ * message WriteRequest { repeated TimeSeries timeseries = 1; }
+ * message TimeSeries   { repeated Label labels = 1; repeated Sample samples = 2; }
+ * message Label        { string name = 1; string value = 2; }
+ * message Sample       { double value = 1; int64 timestamp = 2; }
+ * </pre>
+ */
+public class RemoteWriteEncoder {
+
+    static final String METRIC_NAME_LABEL = "__name__";
+
+    // Remote-write receivers (AMP included) cap the number of samples per request
+    public static final int DEFAULT_MAX_SAMPLES_PER_REQUEST = 2000;
+    // ... and the size of the request body
+    public static final int DEFAULT_MAX_REQUEST_BYTES = 1024 * 1024;
+
+    // Worst-case encoded size of a sample: tag, length, double and a 10-byte varint timestamp
+    private static final int MAX_SAMPLE_BYTES = 2 + CodedOutputStream.computeDoubleSize(1, 0)
+            + CodedOutputStream.computeTagSize(2) + 10;
+    private static final double MIN_COMPRESSION_RATIO = 0.05;
+
+    private final int maxSamplesPerRequest;
+    private final int maxRequestBytes;
+    private final BufferPool bufferPool;
+    private ByteBuffer messageBuffer;
+    private ByteBuffer compressBuffer;
+    // Moving average of compressed / uncompressed size, to size requests before compressing them
+    private double compressionRatio = 1;
+
+    public RemoteWriteEncoder() {
+        this(DEFAULT_MAX_SAMPLES_PER_REQUEST);
+    }
+
+    public RemoteWriteEncoder(int maxSamplesPerRequest) {
+        this(maxSamplesPerRequest, DEFAULT_MAX_REQUEST_BYTES);
+    }
+
+    public RemoteWriteEncoder(int maxSamplesPerRequest, int maxRequestBytes) {
+        this(maxSamplesPerRequest, maxRequestBytes, new BufferPool(BufferPool.DEFAULT_MAX_POOLED_BYTES));
+    }
+
+    public RemoteWriteEncoder(int maxSamplesPerRequest, int maxRequestBytes, BufferPool bufferPool) {
+        if (maxSamplesPerRequest <= 0) {
+            throw new IllegalArgumentException("maxSamplesPerRequest must be positive: " + maxSamplesPerRequest);
+        }
+        if (maxRequestBytes <= 0) {
+            throw new IllegalArgumentException("maxRequestBytes must be positive: " + maxRequestBytes);
+        }
+        this.maxSamplesPerRequest = maxSamplesPerRequest;
+        this.maxRequestBytes = maxRequestBytes;
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * Encodes every series of the buffer into as few snappy-compressed {@code WriteRequest} bodies
+     * as the per-request sample and size limits allow.
+     */
+    public List<Request> encode(SeriesBuffer buffer) throws IOException {
+        return encode(buffer, maxSamplesPerRequest);
+    }
+
+    /**
+     * Same as {@link #encode(SeriesBuffer)}, with at most {@code samplesPerRequest} samples per
+     * request. A series larger than a request is split across consecutive requests, keeping its
+     * samples in order.
+     *
+     * The compressed size of a request is only known once it is compressed, so requests are cut
+     * at the uncompressed size that the compression ratio seen so far maps to the size limit.
+     * A body that still comes out too large is split in two and encoded again.
+     */
+    public List<Request> encode(SeriesBuffer buffer, int samplesPerRequest) throws IOException {
+        int sampleLimit = Math.max(1, Math.min(samplesPerRequest, maxSamplesPerRequest));
+        long byteLimit = (long) (maxRequestBytes / compressionRatio);
+        List<Request> requests = new ArrayList<>();
+        List<Slice> batch = new ArrayList<>();
+        int batchSamples = 0;
+        long batchBytes = 0;
+
+        for (int i = 0; i < buffer.seriesCount(); i++) {
+            SeriesBuffer.Series series = buffer.get(i);
+            int seriesBytes = labelsSize(series) + 6;
+            int from = 0;
+            while (from < series.size()) {
+                long byteRoom = (byteLimit - batchBytes - seriesBytes) / MAX_SAMPLE_BYTES;
+                int room = (int) Math.min(sampleLimit - batchSamples, byteRoom);
+                if (room <= 0 && !batch.isEmpty()) {
+                    addRequests(batch, requests);
+                    batch.clear();
+                    batchSamples = 0;
+                    batchBytes = 0;
+                    continue;
+                }
+                // A single series too large for a request still goes out, one sample at a time
+                int to = Math.min(series.size(), from + Math.max(room, 1));
+                batch.add(new Slice(series, from, to));
+                batchSamples += to - from;
+                batchBytes += seriesBytes + (long) (to - from) * MAX_SAMPLE_BYTES;
+                from = to;
+
+                if (batchSamples >= sampleLimit) {
+                    addRequests(batch, requests);
+                    batch.clear();
+                    batchSamples = 0;
+                    batchBytes = 0;
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            addRequests(batch, requests);
+        }
+        return requests;
+    }
+
+    /**
+     * Splits the requests, in order, into at most {@code shardCount} shards of consecutive
+     * requests, to be sent concurrently. A series split across requests stays within one shard,
+     * whose requests are sent one after the other, so its samples arrive in order.
+     */
+    public static List<List<Request>> shard(List<Request> requests, int shardCount) {
+        List<List<Request>> shards = new ArrayList<>(Math.min(shardCount, requests.size()));
+        int shardSize = (requests.size() + shardCount - 1) / Math.max(shardCount, 1);
+        List<Request> shard = new ArrayList<>();
+        for (Request request : requests) {
+            if (shard.size() >= shardSize && !request.isContinuation() && shards.size() < shardCount - 1) {
+                shards.add(shard);
+                shard = new ArrayList<>();
+            }
+            shard.add(request);
+        }
+        if (!shard.isEmpty()) {
+            shards.add(shard);
+        }
+        return shards;
+    }
+
+    private void addRequests(List<Slice> slices, List<Request> requests) throws IOException {
+        ByteBuffer message = encodeWriteRequest(slices);
+        int messageSize = message.remaining();
+        compressBuffer = ensureCapacity(compressBuffer, Snappy.maxCompressedLength(messageSize));
+        int bodySize = Snappy.compress(message, compressBuffer);
+        compressionRatio = Math.max(MIN_COMPRESSION_RATIO,
+                0.8 * compressionRatio + 0.2 * bodySize / Math.max(messageSize, 1));
+
+        if (bodySize > maxRequestBytes) {
+            // Halves in order: the first half of the slices, or of the samples of a lone slice
+            if (slices.size() > 1) {
+                int middle = slices.size() / 2;
+                addRequests(new ArrayList<>(slices.subList(0, middle)), requests);
+                addRequests(new ArrayList<>(slices.subList(middle, slices.size())), requests);
+                return;
+            }
+            Slice slice = slices.get(0);
+            if (slice.to - slice.from > 1) {
+                int middle = slice.from + (slice.to - slice.from) / 2;
+                addRequests(Collections.singletonList(new Slice(slice.series, slice.from, middle)), requests);
+                addRequests(Collections.singletonList(new Slice(slice.series, middle, slice.to)), requests);
+                return;
+            }
+        }
+
+        BitSet records = new BitSet();
+        int samples = 0;
+        for (Slice slice : slices) {
+            slice.series.sources(slice.from, slice.to, records);
+            samples += slice.to - slice.from;
+        }
+        // The compress buffer is sized for the worst case, several times the body; hold on to a
+        // buffer of the body's size instead
+        ByteBuffer body = bufferPool.acquire(bodySize);
+        compressBuffer.position(0).limit(bodySize);
+        body.put(compressBuffer).flip();
+        // The batch list is reused for the next request
+        requests.add(new Request(body, bufferPool, records, samples, new ArrayList<>(slices)));
+    }
+
+    // Swaps buffer for a larger one from the pool when it is smaller than capacity
+    private ByteBuffer ensureCapacity(ByteBuffer buffer, int capacity) {
+        if (buffer != null && buffer.capacity() >= capacity) {
+            buffer.clear();
+            return buffer;
+        }
+        bufferPool.release(buffer);
+        return bufferPool.acquire(capacity);
+    }
+
+    // Serializes one WriteRequest with a TimeSeries per slice into the message buffer, returned
+    // ready to be read
+    ByteBuffer encodeWriteRequest(List<Slice> slices) throws IOException {
+        int[] seriesSizes = new int[slices.size()];
+        int messageSize = 0;
+        for (int i = 0; i < slices.size(); i++) {
+            seriesSizes[i] = timeSeriesSize(slices.get(i));
+            messageSize += lengthDelimitedSize(1, seriesSizes[i]);
+        }
+
+        messageBuffer = ensureCapacity(messageBuffer, messageSize);
+        messageBuffer.limit(messageSize);
+        CodedOutputStream out = CodedOutputStream.newInstance(messageBuffer);
+        for (int i = 0; i < slices.size(); i++) {
+            out.writeTag(1, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            out.writeUInt32NoTag(seriesSizes[i]);
+            writeTimeSeries(out, slices.get(i));
+        }
+        out.checkNoSpaceLeft();
+        messageBuffer.position(0);
+        return messageBuffer;
+    }
+
+    private void writeTimeSeries(CodedOutputStream out, Slice slice) throws IOException {
+        SeriesBuffer.Series series = slice.series;
+
+        // Labels must be sorted by name; upper-case label names sort before "__name__"
+        boolean nameWritten = false;
+        for (int i = 0; i < series.labelCount(); i++) {
+            if (!nameWritten && series.labelName(i).compareTo(METRIC_NAME_LABEL) > 0) {
+                writeLabel(out, METRIC_NAME_LABEL, series.getName());
+                nameWritten = true;
+            }
+            writeLabel(out, series.labelName(i), series.labelValue(i));
+        }
+        if (!nameWritten) {
+            writeLabel(out, METRIC_NAME_LABEL, series.getName());
+        }
+
+        for (int i = slice.from; i < slice.to; i++) {
+            out.writeTag(2, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            out.writeUInt32NoTag(sampleSize(series.value(i), series.timestamp(i)));
+            out.writeDouble(1, series.value(i));
+            out.writeInt64(2, series.timestamp(i));
+        }
+    }
+
+    private void writeLabel(CodedOutputStream out, String name, String value) throws IOException {
+        out.writeTag(1, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        out.writeUInt32NoTag(labelSize(name, value));
+        out.writeString(1, name);
+        out.writeString(2, value);
+    }
+
+    private static int timeSeriesSize(Slice slice) {
+        SeriesBuffer.Series series = slice.series;
+        int size = labelsSize(series);
+        for (int i = slice.from; i < slice.to; i++) {
+            size += lengthDelimitedSize(2, sampleSize(series.value(i), series.timestamp(i)));
+        }
+        return size;
+    }
+
+    private static int labelsSize(SeriesBuffer.Series series) {
+        int size = lengthDelimitedSize(1, labelSize(METRIC_NAME_LABEL, series.getName()));
+        for (int i = 0; i < series.labelCount(); i++) {
+            size += lengthDelimitedSize(1, labelSize(series.labelName(i), series.labelValue(i)));
+        }
+        return size;
+    }
+
+    private static int labelSize(String name, String value) {
+        return CodedOutputStream.computeStringSize(1, name) + CodedOutputStream.computeStringSize(2, value);
+    }
+
+    private static int sampleSize(double value, long timestamp) {
+        return CodedOutputStream.computeDoubleSize(1, value) + CodedOutputStream.computeInt64Size(2, timestamp);
+    }
+
+    private static int lengthDelimitedSize(int fieldNumber, int length) {
+        return CodedOutputStream.computeTagSize(fieldNumber) + CodedOutputStream.computeUInt32SizeNoTag(length) + length;
+    }
+
+    /**
+     * A compressed {@code WriteRequest} body and the indexes of the records whose samples it holds.
+     */
+    public static final class Request {
+        private final ByteBuffer body;
+        private final BufferPool bufferPool;
+        private final BitSet records;
+        private final int sampleCount;
+        private final List<Slice> slices;
+        private boolean released;
+
+        Request(ByteBuffer body, BufferPool bufferPool, BitSet records, int sampleCount, List<Slice> slices) {
+            this.body = body;
+            this.bufferPool = bufferPool;
+            this.records = records;
+            this.sampleCount = sampleCount;
+            this.slices = slices;
+        }
+
+        // A view of the body, with its own position, valid until release()
+        public ByteBuffer getBody() { return body.duplicate(); }
+
+        public int getBodySize() { return body.remaining(); }
+
+        /**
+         * Gives the body buffer back to the pool once the request is sent or parked.
+         */
+        public synchronized void release() {
+            if (!released) {
+                released = true;
+                bufferPool.release(body);
+            }
+        }
+
+        public BitSet getRecords() { return records; }
+
+        public int getSampleCount() { return sampleCount; }
+
+        public int seriesCount() { return slices.size(); }
+
+        // The series in this request, valid until the series buffer is cleared, and the samples
+        // [sampleFrom, sampleTo) of it that the request holds
+        public SeriesBuffer.Series series(int index) { return slices.get(index).series; }
+
+        public int sampleFrom(int index) { return slices.get(index).from; }
+
+        public int sampleTo(int index) { return slices.get(index).to; }
+
+        // Starts with the rest of a series begun in the previous request
+        public boolean isContinuation() { return slices.get(0).from > 0; }
+    }
+
+    // The samples [from, to) of a series that go into one request
+    static final class Slice {
+        final SeriesBuffer.Series series;
+        final int from;
+        final int to;
+
+        Slice(SeriesBuffer.Series series, int from, int to) {
+            this.series = series;
+            this.from = from;
+            this.to = to;
+        }
+    }
+}
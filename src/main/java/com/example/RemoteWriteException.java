@@ -0,0 +1,44 @@
+package com.example;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the remote-write endpoint rejects a request.
+ */
+public class RemoteWriteException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+    private final long retryAfterMillis;
+
+    public RemoteWriteException(int statusCode, String message) {
+        this(statusCode, message, -1);
+    }
+
+    public RemoteWriteException(int statusCode, String message, long retryAfterMillis) {
+        super(message);
+        this.statusCode = statusCode;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * How long the endpoint asked to wait before the next request, from its {@code Retry-After}
+     * header, or -1 without one.
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    /**
+     * Throttling (429) and server errors (5xx) are worth retrying; any other rejection would
+     * fail again with the same payload.
+     */
+    public boolean isRetryable() {
+        return statusCode == 429 || statusCode / 100 == 5;
+    }
+}
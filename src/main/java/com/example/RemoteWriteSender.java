@@ -0,0 +1,279 @@
+package com.example;
+
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.http.HttpExecuteRequest;
+import software.amazon.awssdk.http.HttpExecuteResponse;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.SdkHttpFullRequest;
+import software.amazon.awssdk.http.SdkHttpMethod;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.auth.aws.signer.AwsV4HttpSigner;
+import software.amazon.awssdk.http.auth.spi.signer.SignedRequest;
+import software.amazon.awssdk.identity.spi.AwsCredentialsIdentity;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.sts.StsClient;
+import software.amazon.awssdk.services.sts.auth.StsAssumeRoleCredentialsProvider;
+import software.amazon.awssdk.utils.IoUtils;
+import software.amazon.awssdk.utils.SdkAutoCloseable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Sends remote-write request bodies to Amazon Managed Service for Prometheus.
+ *
+ * One instance lives for the whole container: the credentials provider caches and refreshes the
+ * assumed-role credentials in the background, the HTTP client keeps a pool of keep-alive
+ * connections to the AMP endpoint and the SigV4 signer is stateless, so warm invocations do no
+ * connection or credential work per request.
+ *
+ * The credentials provider, and with {@code AWS_AMP_ROLE_ARN} the STS client behind it, is built
+ * on the first request that needs credentials: an init or a snapshot restore does not pay for the
+ * STS client, and priming never resolves credentials.
+ *
+ * A SnapStart snapshot must not carry connections or credentials over to the restored
+ * containers, so {@link #reconnect()} rebuilds the client and drops the credentials provider.
+ */
+public class RemoteWriteSender implements AutoCloseable {
+
+    private static final String SIGNING_NAME = "aps";
+    private static final String S3_SIGNING_NAME = "s3";
+
+    // Only used to warm up the signer, never sent
+    private static final AwsCredentialsIdentity PRIMING_CREDENTIALS =
+            AwsBasicCredentials.create("AKIDPRIMING", "priming");
+
+    private final HandlerConfig config;
+    private final URI remoteWriteUri;
+    private final String region;
+    private final AwsV4HttpSigner signer = AwsV4HttpSigner.create();
+    // Built by this sender, rather than injected, and so rebuilt by reconnect()
+    private final boolean ownsClients;
+    private volatile SdkHttpClient httpClient;
+    // Null until the first request needs credentials, unless injected
+    private volatile AwsCredentialsProvider credentialsProvider;
+    private volatile StsClient stsClient;
+
+    public RemoteWriteSender(HandlerConfig config) {
+        this.config = config;
+        this.remoteWriteUri = URI.create(config.getRemoteWriteUrl());
+        this.region = config.getRegion();
+        this.ownsClients = true;
+        connect();
+    }
+
+    public RemoteWriteSender(HandlerConfig config, AwsCredentialsProvider credentialsProvider, SdkHttpClient httpClient) {
+        this.config = config;
+        this.remoteWriteUri = URI.create(config.getRemoteWriteUrl());
+        this.region = config.getRegion();
+        this.ownsClients = false;
+        this.httpClient = httpClient;
+        this.credentialsProvider = credentialsProvider;
+    }
+
+    private void connect() {
+        httpClient = ApacheHttpClient.builder()
+                .maxConnections(config.getHttpMaxConnections())
+                .connectionTimeout(config.getHttpConnectionTimeout())
+                .socketTimeout(config.getHttpSocketTimeout())
+                .connectionMaxIdleTime(config.getHttpConnectionMaxIdleTime())
+                .tcpKeepAlive(true)
+                .build();
+        stsClient = null;
+        credentialsProvider = null;
+    }
+
+    private AwsCredentialsIdentity resolveCredentials() {
+        AwsCredentialsProvider provider = credentialsProvider;
+        if (provider == null) {
+            synchronized (this) {
+                provider = credentialsProvider;
+                if (provider == null) {
+                    provider = createCredentialsProvider();
+                    credentialsProvider = provider;
+                }
+            }
+        }
+        return provider.resolveCredentials();
+    }
+
+    private AwsCredentialsProvider createCredentialsProvider() {
+        if (config.getAmpRoleArn() == null || config.getAmpRoleArn().isEmpty()) {
+            // No role to assume, sign with the Lambda execution role. The builder, unlike
+            // create(), returns a new provider that caches nothing from a previous container.
+            return DefaultCredentialsProvider.builder().build();
+        }
+        // The STS client shares the connection pool; credentials are refreshed before they expire
+        stsClient = StsClient.builder()
+                .region(Region.of(config.getRegion()))
+                .httpClient(httpClient)
+                .build();
+        return StsAssumeRoleCredentialsProvider.builder()
+                .stsClient(stsClient)
+                .refreshRequest(builder -> builder.roleArn(config.getAmpRoleArn())
+                                                  .roleSessionName(SIGNING_NAME))
+                .asyncCredentialUpdateEnabled(true)
+                .build();
+    }
+
+    /**
+     * Replaces the HTTP client with a new one and drops the credentials provider, built again by the
+     * next request, e.g. after a snapshot restore. Does nothing when they were injected.
+     */
+    public synchronized void reconnect() {
+        if (!ownsClients) {
+            return;
+        }
+        SdkHttpClient oldHttpClient = httpClient;
+        AwsCredentialsProvider oldCredentialsProvider = credentialsProvider;
+        StsClient oldStsClient = stsClient;
+        connect();
+        closeClients(oldHttpClient, oldCredentialsProvider, oldStsClient);
+    }
+
+    /**
+     * Loads and warms up the request building and signing code by signing {@code body} with
+     * placeholder credentials. Nothing is sent and no credentials are resolved.
+     */
+    public void prime(ByteBuffer body) {
+        SdkHttpFullRequest sdkRequest = createRequest(body);
+        sign(sdkRequest, PRIMING_CREDENTIALS, SIGNING_NAME);
+    }
+
+    /**
+     * Signs and POSTs one snappy-compressed {@code WriteRequest} body, read from its position to
+     * its limit, straight from the buffer. The buffer itself is left untouched.
+     *
+     * @throws RemoteWriteException if AMP answers with a non-2xx status
+     */
+    public void send(ByteBuffer body, InvocationMetrics metrics) throws IOException {
+        SdkHttpFullRequest sdkRequest = createRequest(body);
+
+        long signStart = System.nanoTime();
+        SignedRequest signedRequest = sign(sdkRequest, resolveCredentials(), SIGNING_NAME);
+        metrics.addTime(InvocationMetrics.Timer.SIGN, System.nanoTime() - signStart);
+
+        HttpExecuteResponse response;
+        try {
+            response = call(signedRequest);
+        } catch (IOException e) {
+            metrics.increment(InvocationMetrics.Counter.CONNECTION_ERRORS);
+            throw e;
+        }
+        metrics.recordStatus(response.httpResponse().statusCode());
+        checkStatus(response, "AMP");
+    }
+
+    /**
+     * PUTs {@code body} to {@code objectUri}, an S3-compatible object URL, signed with the same
+     * credentials and sent over the same connection pool as the remote-write requests.
+     *
+     * @throws RemoteWriteException if the object store answers with a non-2xx status
+     */
+    public void putObject(URI objectUri, ByteBuffer body) throws IOException {
+        SdkHttpFullRequest sdkRequest = SdkHttpFullRequest.builder()
+                .uri(objectUri)
+                .method(SdkHttpMethod.PUT)
+                .putHeader("Content-Type", "application/x-protobuf")
+                .putHeader("Content-Length", Integer.toString(body.remaining()))
+                .contentStreamProvider(() -> new ByteBufferInputStream(body.duplicate()))
+                .build();
+        checkStatus(call(sign(sdkRequest, resolveCredentials(), S3_SIGNING_NAME)), "S3");
+    }
+
+    private HttpExecuteResponse call(SignedRequest signedRequest) throws IOException {
+        HttpExecuteRequest httpExecuteRequest = HttpExecuteRequest.builder()
+                .request(signedRequest.request())
+                .contentStreamProvider(signedRequest.payload().orElse(null))
+                .build();
+        return httpClient.prepareRequest(httpExecuteRequest).call();
+    }
+
+    private static void checkStatus(HttpExecuteResponse response, String target) throws IOException {
+        int statusCode = response.httpResponse().statusCode();
+        // Always consume the body so the connection goes back to the pool
+        String responseBody = readBody(response);
+        if (statusCode / 100 != 2) {
+            throw new RemoteWriteException(statusCode,
+                    "Request to " + target + " failed with status: " + statusCode + ", body: " + responseBody,
+                    retryAfterMillis(response.httpResponse().firstMatchingHeader("Retry-After").orElse(null),
+                            System.currentTimeMillis()));
+        }
+    }
+
+    // Retry-After is either a number of seconds or an HTTP date, the wait from nowMillis or -1
+    static long retryAfterMillis(String retryAfter, long nowMillis) {
+        if (retryAfter == null || retryAfter.trim().isEmpty()) {
+            return -1;
+        }
+        try {
+            return Math.max(0, Long.parseLong(retryAfter.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            try {
+                long at = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME)
+                        .toInstant().toEpochMilli();
+                return Math.max(0, at - nowMillis);
+            } catch (DateTimeParseException ignored) {
+                return -1;
+            }
+        }
+    }
+
+    // The signer and the HTTP client each open their own stream over the body
+    private SdkHttpFullRequest createRequest(ByteBuffer body) {
+        return SdkHttpFullRequest.builder()
+                .uri(remoteWriteUri)
+                .method(SdkHttpMethod.POST)
+                .putHeader("Content-Type", "application/x-protobuf")
+                .putHeader("Content-Encoding", "snappy")
+                .putHeader("Content-Length", Integer.toString(body.remaining()))
+                .putHeader("X-Prometheus-Remote-Write-Version", "0.1.0")
+                .contentStreamProvider(() -> new ByteBufferInputStream(body.duplicate()))
+                .build();
+    }
+
+    private SignedRequest sign(SdkHttpFullRequest sdkRequest, AwsCredentialsIdentity credentials, String signingName) {
+        return signer.sign(r -> r.identity(credentials)
+                .request(sdkRequest)
+                .payload(sdkRequest.contentStreamProvider().orElse(null))
+                .putProperty(AwsV4HttpSigner.SERVICE_SIGNING_NAME, signingName)
+                .putProperty(AwsV4HttpSigner.REGION_NAME, region));
+    }
+
+    private static String readBody(HttpExecuteResponse response) throws IOException {
+        if (!response.responseBody().isPresent()) {
+            return "";
+        }
+        try (InputStream in = response.responseBody().get()) {
+            return new String(IoUtils.toByteArray(in), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (ownsClients) {
+            closeClients(httpClient, credentialsProvider, stsClient);
+        } else {
+            httpClient.close();
+        }
+    }
+
+    private static void closeClients(SdkHttpClient httpClient, AwsCredentialsProvider credentialsProvider,
+                                     StsClient stsClient) {
+        if (credentialsProvider instanceof SdkAutoCloseable) {
+            ((SdkAutoCloseable) credentialsProvider).close();
+        }
+        if (stsClient != null) {
+            stsClient.close();
+        }
+        httpClient.close();
+    }
+}
@@ -0,0 +1,73 @@
+package com.example;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Retries remote-write sends with exponential backoff and full jitter: before attempt {@code n}
+ * it sleeps a random time between zero and {@code min(maxDelay, baseDelay * 2^(n-1))}.
+ *
+ * A longer {@code Retry-After} sent with a throttling or server error replaces the random delay.
+ *
+ * Connection failures and retryable {@link RemoteWriteException}s are retried until the attempts
+ * run out or the next wait would pass the deadline (the Lambda timeout); anything else fails at once.
+ */
+public class RetryPolicy {
+
+    @FunctionalInterface
+    public interface Attempt {
+        /**
+         * @param retry zero for the first attempt, then the number of the retry
+         */
+        void run(int retry) throws IOException;
+    }
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+        if (maxAttempts <= 0) {
+            throw new IllegalArgumentException("maxAttempts must be positive: " + maxAttempts);
+        }
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * Runs {@code attempt} until it succeeds, returning the number of retries it took.
+     *
+     * @param deadlineNanos {@link System#nanoTime()} after which no new attempt is started
+     */
+    public int run(Attempt attempt, long deadlineNanos) throws IOException, InterruptedException {
+        for (int retries = 0; ; retries++) {
+            try {
+                attempt.run(retries);
+                return retries;
+            } catch (IOException e) {
+                if (!isRetryable(e) || retries + 1 >= maxAttempts) {
+                    throw e;
+                }
+                long delayMillis = Math.max(backoffMillis(retries + 1), retryAfterMillis(e));
+                if (System.nanoTime() + delayMillis * 1_000_000L > deadlineNanos) {
+                    throw e;
+                }
+                Thread.sleep(delayMillis);
+            }
+        }
+    }
+
+    long backoffMillis(int retry) {
+        long ceiling = Math.min(maxDelayMillis, baseDelayMillis << Math.min(retry - 1, 30));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    static long retryAfterMillis(IOException e) {
+        return e instanceof RemoteWriteException ? ((RemoteWriteException) e).getRetryAfterMillis() : -1;
+    }
+
+    static boolean isRetryable(IOException e) {
+        return !(e instanceof RemoteWriteException) || ((RemoteWriteException) e).isRetryable();
+    }
+}
@@ -0,0 +1,53 @@
+package com.example;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.UUID;
+
+/**
+ * Writes overflowing remote-write request bodies as objects of an S3 bucket, or of any
+ * S3-compatible store set with {@code OVERFLOW_S3_ENDPOINT}, with path-style URLs:
+ * {@code <endpoint>/<bucket>/<prefix>yyyy/MM/dd/HH/<millis>-<uuid>.snappy}.
+ *
+ * Each object is one snappy-compressed {@code WriteRequest}, which any remote-write client can
+ * replay with the usual {@code Content-Encoding: snappy} headers.
+ */
+public class S3OverflowSink implements OverflowSink {
+
+    private static final DateTimeFormatter HOUR_PATH = DateTimeFormatter.ofPattern("yyyy/MM/dd/HH/");
+
+    private final RemoteWriteSender sender;
+    private final String objectUrlPrefix;
+
+    public S3OverflowSink(String endpoint, String bucket, String prefix, RemoteWriteSender sender) {
+        this.sender = sender;
+        this.objectUrlPrefix = trimTrailingSlash(endpoint) + "/" + bucket + "/" + (prefix != null ? prefix : "");
+    }
+
+    /**
+     * The sink configured with {@code OVERFLOW_S3_BUCKET}, or null without one.
+     */
+    static S3OverflowSink create(HandlerConfig config, RemoteWriteSender sender) {
+        if (config.getOverflowS3Bucket() == null || config.getOverflowS3Bucket().isEmpty()) {
+            return null;
+        }
+        return new S3OverflowSink(config.getOverflowS3Endpoint(), config.getOverflowS3Bucket(),
+                config.getOverflowS3Prefix(), sender);
+    }
+
+    @Override
+    public void write(ByteBuffer body) throws IOException {
+        ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC);
+        // Random rather than a per-container id, which SnapStart would share between restored containers
+        String key = HOUR_PATH.format(now) + now.toInstant().toEpochMilli() + "-" + UUID.randomUUID() + ".snappy";
+        sender.putObject(URI.create(objectUrlPrefix + key), body);
+    }
+
+    private static String trimTrailingSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+}
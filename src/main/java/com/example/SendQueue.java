@@ -0,0 +1,153 @@
+package com.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Holds the remote-write requests AMP could not take yet, so throttling (429) and server errors
+ * do not make Firehose redeliver whole batches.
+ *
+ * A request that still fails after its retries is parked: appended to the {@link SpillQueue}, or
+ * written to the {@link OverflowSink} once the spill file is full, and its records are reported
+ * {@code Ok}. The next invocations of the execution environment flush the spilled requests, oldest
+ * first, before sending their own. While requests are still spilled, or while AMP's
+ * {@code Retry-After} window is open, new requests are parked behind them instead of being sent,
+ * which keeps every series in timestamp order and stops hammering a throttling endpoint. When
+ * neither the spill file nor the sink can take a request, its records fail as before and Firehose
+ * backs off and redelivers them.
+ *
+ * Spilled requests live as long as the execution environment; the ones left when Lambda recycles
+ * it are lost, unless they overflowed to the sink.
+ */
+public class SendQueue {
+
+    @FunctionalInterface
+    public interface Sender {
+        void send(ByteBuffer body) throws IOException;
+    }
+
+    /**
+     * Outcome of {@link #flush}.
+     */
+    public static final class FlushResult {
+        private final int sent;
+        private final int rejected;
+
+        FlushResult(int sent, int rejected) {
+            this.sent = sent;
+            this.rejected = rejected;
+        }
+
+        public int getSent() { return sent; }
+
+        // Requests AMP rejected for good, dropped from the spill
+        public int getRejected() { return rejected; }
+    }
+
+    private final SpillQueue spill;
+    private final OverflowSink overflowSink;
+    // Wait after a retryable failure without Retry-After
+    private final long defaultBackoffMillis;
+    private volatile long throttledUntilMillis;
+
+    /**
+     * @param spill        null to not spill
+     * @param overflowSink null without a sink
+     */
+    public SendQueue(SpillQueue spill, OverflowSink overflowSink, long defaultBackoffMillis) {
+        this.spill = spill;
+        this.overflowSink = overflowSink;
+        this.defaultBackoffMillis = defaultBackoffMillis;
+    }
+
+    public boolean isEnabled() {
+        return spill != null || overflowSink != null;
+    }
+
+    /**
+     * Whether new requests must be parked rather than sent: requests are still spilled or AMP asked
+     * to wait.
+     */
+    public boolean isBacklogged(long nowMillis) {
+        return isEnabled() && (nowMillis < throttledUntilMillis || (spill != null && !spill.isEmpty()));
+    }
+
+    /**
+     * Opens the {@code Retry-After} window of a retryable failure.
+     */
+    public void throttle(IOException failure, long nowMillis) {
+        long retryAfterMillis = RetryPolicy.retryAfterMillis(failure);
+        long until = nowMillis + (retryAfterMillis >= 0 ? retryAfterMillis : defaultBackoffMillis);
+        synchronized (this) {
+            throttledUntilMillis = Math.max(throttledUntilMillis, until);
+        }
+    }
+
+    /**
+     * Spills {@code body}, or writes it to the overflow sink when the spill is full. Both copy it,
+     * so the buffer can be reused once this returns.
+     *
+     * @return false when neither could take it
+     * @throws IOException if writing to the overflow sink failed
+     */
+    public boolean park(ByteBuffer body, InvocationMetrics metrics) throws IOException {
+        IOException spillFailure = null;
+        if (spill != null) {
+            try {
+                if (spill.offer(body)) {
+                    metrics.increment(InvocationMetrics.Counter.SPILLED_REQUESTS);
+                    return true;
+                }
+            } catch (IOException e) {
+                spillFailure = e;
+            }
+        }
+        if (overflowSink != null) {
+            overflowSink.write(body);
+            metrics.increment(InvocationMetrics.Counter.OVERFLOW_REQUESTS);
+            return true;
+        }
+        if (spillFailure != null) {
+            throw spillFailure;
+        }
+        return false;
+    }
+
+    /**
+     * Sends the spilled requests, oldest first, one at a time, until none is left, the deadline
+     * passes, the {@code Retry-After} window is open or a send fails with a retryable error.
+     */
+    public FlushResult flush(Sender sender, long deadlineNanos, InvocationMetrics metrics) throws IOException {
+        int sent = 0;
+        int rejected = 0;
+        if (spill == null) {
+            return new FlushResult(sent, rejected);
+        }
+        while (System.nanoTime() < deadlineNanos && System.currentTimeMillis() >= throttledUntilMillis) {
+            byte[] body = spill.peek();
+            if (body == null) {
+                break;
+            }
+            try {
+                sender.send(ByteBuffer.wrap(body));
+                sent++;
+                metrics.increment(InvocationMetrics.Counter.FLUSHED_REQUESTS);
+            } catch (IOException e) {
+                if (RetryPolicy.isRetryable(e)) {
+                    throttle(e, System.currentTimeMillis());
+                    break;
+                }
+                rejected++;
+            }
+            spill.remove();
+        }
+        return new FlushResult(sent, rejected);
+    }
+
+    /**
+     * Bytes waiting in the spill file.
+     */
+    public long spilledBytes() {
+        return spill != null ? spill.bytes() : 0;
+    }
+}
@@ -0,0 +1,149 @@
+package com.example;
+
+import java.util.Arrays;
+
+/**
+ * Timestamps of the samples sent for each series, by {@link SeriesBuffer.Series#fingerprint()},
+ * kept across the warm invocations of an execution environment. When Firehose redelivers a batch,
+ * e.g. after the function timed out once its requests were sent, the samples sent already are
+ * skipped rather than sent again, which AMP would reject as duplicates. A sample that was not
+ * sent, however old, is never skipped: late samples within the out-of-order window go out.
+ *
+ * Memory is fixed: {@code capacity} series in buckets of four, each with the last
+ * {@value #TIMESTAMPS_PER_SERIES} timestamps recorded for it, about 80 bytes per series. A series
+ * that comes into a full bucket evicts the one sent least recently, so a forgotten sample is sent
+ * again rather than skipped: the index never drops a sample that was not sent.
+ *
+ * Thread-safe: the shards record what they sent concurrently.
+ */
+public class SentTimestamps {
+
+    // Nothing sent yet
+    public static final long NONE = Long.MIN_VALUE;
+
+    static final int TIMESTAMPS_PER_SERIES = 8;
+
+    private static final int BUCKET_SIZE = 4;
+
+    private final long[] fingerprints;
+    // Newest timestamp sent per series, to evict the series sent least recently
+    private final long[] newest;
+    // Ring of the timestamps sent per series, TIMESTAMPS_PER_SERIES each
+    private final long[] timestamps;
+    private final byte[] nextTimestamp;
+    private final int bucketShift;
+
+    /**
+     * @param capacity series, rounded up to a power of two; zero disables the index
+     */
+    public SentTimestamps(int capacity) {
+        int size = capacity <= 0 ? 0 : Math.max(BUCKET_SIZE, Integer.highestOneBit(capacity - 1) << 1);
+        this.fingerprints = new long[size];
+        this.newest = new long[size];
+        this.timestamps = new long[size * TIMESTAMPS_PER_SERIES];
+        this.nextTimestamp = new byte[size];
+        this.bucketShift = 64 - Integer.numberOfTrailingZeros(Math.max(size / BUCKET_SIZE, 1));
+        clear();
+    }
+
+    public boolean isEnabled() {
+        return fingerprints.length > 0;
+    }
+
+    /**
+     * The newest timestamp sent for the series, or {@link #NONE}.
+     */
+    public synchronized long get(long fingerprint) {
+        int entry = find(fingerprint);
+        return entry >= 0 ? newest[entry] : NONE;
+    }
+
+    /**
+     * Whether the sample of {@code series} at {@code timestamp} was sent.
+     */
+    public boolean isSent(SeriesBuffer.Series series, long timestamp) {
+        return isSent(series.fingerprint(), timestamp);
+    }
+
+    public synchronized boolean isSent(long fingerprint, long timestamp) {
+        int entry = find(fingerprint);
+        return entry >= 0 && contains(entry, timestamp);
+    }
+
+    /**
+     * Records that the samples {@code [from, to)} of {@code series} were sent.
+     */
+    public void update(SeriesBuffer.Series series, int from, int to) {
+        long fingerprint = series.fingerprint();
+        synchronized (this) {
+            for (int i = from; i < to; i++) {
+                update(fingerprint, series.timestamp(i));
+            }
+        }
+    }
+
+    /**
+     * Records that the sample of the series at {@code timestamp} was sent.
+     */
+    public synchronized void update(long fingerprint, long timestamp) {
+        if (!isEnabled()) {
+            return;
+        }
+        int entry = find(fingerprint);
+        if (entry < 0) {
+            // The series sent least recently gives way; empty entries are stamped NONE
+            int bucket = bucket(fingerprint);
+            entry = bucket;
+            for (int slot = bucket + 1; slot < bucket + BUCKET_SIZE; slot++) {
+                if (newest[slot] < newest[entry]) {
+                    entry = slot;
+                }
+            }
+            fingerprints[entry] = fingerprint;
+            newest[entry] = NONE;
+            nextTimestamp[entry] = 0;
+            Arrays.fill(timestamps, entry * TIMESTAMPS_PER_SERIES, (entry + 1) * TIMESTAMPS_PER_SERIES, NONE);
+        } else if (contains(entry, timestamp)) {
+            return;
+        }
+        // Overwrites the timestamp recorded first
+        timestamps[entry * TIMESTAMPS_PER_SERIES + nextTimestamp[entry]] = timestamp;
+        nextTimestamp[entry] = (byte) ((nextTimestamp[entry] + 1) % TIMESTAMPS_PER_SERIES);
+        newest[entry] = Math.max(newest[entry], timestamp);
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(fingerprints, 0);
+        Arrays.fill(newest, NONE);
+        Arrays.fill(timestamps, NONE);
+        Arrays.fill(nextTimestamp, (byte) 0);
+    }
+
+    // Entry of the series, or -1; fingerprints are never zero
+    private int find(long fingerprint) {
+        if (!isEnabled()) {
+            return -1;
+        }
+        int bucket = bucket(fingerprint);
+        for (int slot = bucket; slot < bucket + BUCKET_SIZE; slot++) {
+            if (fingerprints[slot] == fingerprint) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private boolean contains(int entry, long timestamp) {
+        for (int i = entry * TIMESTAMPS_PER_SERIES; i < (entry + 1) * TIMESTAMPS_PER_SERIES; i++) {
+            if (timestamps[i] == timestamp) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // First slot of the bucket, from the high bits of a Fibonacci hash
+    private int bucket(long fingerprint) {
+        return bucketShift == 64 ? 0 : (int) ((fingerprint * 0x9e3779b97f4a7c15L) >>> bucketShift) * BUCKET_SIZE;
+    }
+}
@@ -0,0 +1,481 @@
+package com.example;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.ToLongFunction;
+
+/**
+ * In-memory buffer of the series produced by one invocation, keyed by metric name and sorted
+ * label set. Samples are kept in primitive arrays per series.
+ *
+ * The handler fills the buffer while converting records and clears it once the series have been
+ * encoded, so nothing outlives the invocation: unlike the simpleclient {@code CollectorRegistry}
+ * there is no global state and the heap stays flat however many records a container processes.
+ * Looking up an existing series does not allocate.
+ *
+ * Before encoding, {@link #aggregate(long)} puts the samples of each series in timestamp order
+ * and merges the ones that share a timestamp or a downsampling window.
+ *
+ * Not thread-safe.
+ */
+public class SeriesBuffer {
+
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int INITIAL_SAMPLES = 4;
+    private static final int[] NO_MERGED_SOURCES = new int[0];
+
+    /**
+     * How the samples of a series that fall into the same downsampling window are combined.
+     */
+    public enum Aggregation {
+        SUM, MAX, MIN, LAST;
+
+        double combine(double aggregate, double value) {
+            switch (this) {
+                case SUM: return aggregate + value;
+                case MAX: return Math.max(aggregate, value);
+                case MIN: return Math.min(aggregate, value);
+                case LAST: return value;
+                default: throw new IllegalStateException("Unknown aggregation: " + this);
+            }
+        }
+    }
+
+    // Open-addressing hash table of the series, plus the series in insertion order
+    private Series[] table = new Series[INITIAL_CAPACITY];
+    private Series[] series = new Series[INITIAL_CAPACITY / 2];
+    private int seriesCount;
+    private int sampleCount;
+
+    /**
+     * Adds a sample to the series identified by {@code name} and the first {@code labelCount}
+     * name/value pairs of {@code labels} ({@code name0, value0, name1, value1, ...}).
+     * The pairs are sorted by label name in place. {@code source} is the index of the Firehose
+     * record the sample came from.
+     */
+    public void add(String name, String[] labels, int labelCount, long timestamp, double value, int source) {
+        add(name, labels, labelCount, Aggregation.LAST, timestamp, value, source);
+    }
+
+    /**
+     * Same as {@link #add(String, String[], int, long, double, int)}, for a series whose samples
+     * are downsampled with {@code aggregation}. The aggregation of the first sample of a series wins.
+     */
+    public void add(String name, String[] labels, int labelCount, Aggregation aggregation,
+                    long timestamp, double value, int source) {
+        sortLabels(labels, labelCount);
+        seriesFor(name, labels, labelCount, aggregation).add(timestamp, value, source);
+        sampleCount++;
+    }
+
+    /**
+     * Appends every sample of {@code other} to this buffer, series by series in their order.
+     */
+    public void addAll(SeriesBuffer other) {
+        for (int i = 0; i < other.seriesCount; i++) {
+            Series source = other.series[i];
+            Series target = seriesFor(source.name, source.labels, source.labels.length / 2, source.aggregation);
+            for (int j = 0; j < source.size; j++) {
+                target.add(source.timestamps[j], source.values[j], source.sources[j]);
+            }
+            sampleCount += source.size;
+        }
+    }
+
+    // Finds the series with these (sorted) labels, creating it when it is new
+    private Series seriesFor(String name, String[] labels, int labelCount, Aggregation aggregation) {
+        int hash = hash(name, labels, labelCount);
+
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        Series entry;
+        while ((entry = table[slot]) != null) {
+            if (entry.hash == hash && entry.matches(name, labels, labelCount)) {
+                return entry;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        entry = new Series(name, Arrays.copyOf(labels, labelCount * 2), hash, aggregation);
+        table[slot] = entry;
+        if (seriesCount == series.length) {
+            series = Arrays.copyOf(series, seriesCount * 2);
+        }
+        series[seriesCount++] = entry;
+
+        if (seriesCount * 2 > table.length) {
+            resize();
+        }
+        return entry;
+    }
+
+    /**
+     * Sorts the samples of every series by timestamp, as remote write requires, and merges the
+     * samples that share a timestamp: the last one received wins, so a metric delivered twice is
+     * sent once. With a positive {@code windowMillis} the samples of each window are then
+     * combined with the series' {@link Aggregation} into one sample stamped with the window start.
+     * A merged sample keeps the records of every sample it replaced.
+     *
+     * @return the number of samples merged away
+     */
+    public int aggregate(long windowMillis) {
+        int merged = 0;
+        for (int i = 0; i < seriesCount; i++) {
+            merged += series[i].aggregate(windowMillis);
+        }
+        sampleCount -= merged;
+        return merged;
+    }
+
+    /**
+     * Tells which samples were sent already, e.g. by the invocation a batch is redelivered after.
+     */
+    @FunctionalInterface
+    public interface SentSamples {
+        boolean isSent(Series series, long timestamp);
+    }
+
+    /**
+     * Removes the samples {@code sent} reports as sent, wherever they are in their series. Must
+     * follow {@link #aggregate(long)}; a series left without samples is skipped by the encoder.
+     *
+     * @return the number of samples removed
+     */
+    public int removeSentSamples(SentSamples sent) {
+        int removed = 0;
+        for (int i = 0; i < seriesCount; i++) {
+            Series entry = series[i];
+            if (entry.size > 0) {
+                removed += entry.removeSent(sent);
+            }
+        }
+        sampleCount -= removed;
+        return removed;
+    }
+
+    /**
+     * Counts the samples of each series stamped before the timestamp {@code newest} gives for it,
+     * e.g. samples that arrive after a newer one of their series was sent. Must follow
+     * {@link #aggregate(long)}.
+     */
+    public int countSamplesBefore(ToLongFunction<Series> newest) {
+        int count = 0;
+        for (int i = 0; i < seriesCount; i++) {
+            Series entry = series[i];
+            if (entry.size > 0) {
+                long timestamp = newest.applyAsLong(entry);
+                for (int j = 0; j < entry.size && entry.timestamps[j] < timestamp; j++) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    public int seriesCount() {
+        return seriesCount;
+    }
+
+    public int sampleCount() {
+        return sampleCount;
+    }
+
+    public boolean isEmpty() {
+        return seriesCount == 0;
+    }
+
+    /**
+     * Returns the {@code index}-th series, in the order the series were first added.
+     */
+    public Series get(int index) {
+        if (index >= seriesCount) {
+            throw new IndexOutOfBoundsException("Series " + index + " of " + seriesCount);
+        }
+        return series[index];
+    }
+
+    /**
+     * Drops every series. The table shrinks back when a large invocation grew it.
+     */
+    public void clear() {
+        if (table.length > INITIAL_CAPACITY * 16) {
+            table = new Series[INITIAL_CAPACITY];
+            series = new Series[INITIAL_CAPACITY / 2];
+        } else {
+            Arrays.fill(table, null);
+            Arrays.fill(series, 0, seriesCount, null);
+        }
+        seriesCount = 0;
+        sampleCount = 0;
+    }
+
+    private void resize() {
+        Series[] newTable = new Series[table.length * 2];
+        int mask = newTable.length - 1;
+        for (int i = 0; i < seriesCount; i++) {
+            int slot = series[i].hash & mask;
+            while (newTable[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            newTable[slot] = series[i];
+        }
+        table = newTable;
+    }
+
+    // Insertion sort: label sets are small and usually already sorted
+    static void sortLabels(String[] labels, int labelCount) {
+        for (int i = 1; i < labelCount; i++) {
+            String name = labels[i * 2];
+            String value = labels[i * 2 + 1];
+            int j = i - 1;
+            while (j >= 0 && labels[j * 2].compareTo(name) > 0) {
+                labels[(j + 1) * 2] = labels[j * 2];
+                labels[(j + 1) * 2 + 1] = labels[j * 2 + 1];
+                j--;
+            }
+            labels[(j + 1) * 2] = name;
+            labels[(j + 1) * 2 + 1] = value;
+        }
+    }
+
+    private static int hash(String name, String[] labels, int labelCount) {
+        int hash = name.hashCode();
+        for (int i = 0; i < labelCount * 2; i++) {
+            hash = hash * 31 + labels[i].hashCode();
+        }
+        // Spread the bits, the table is indexed by the low ones
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * A series: its name, sorted labels and samples in the order they were added.
+     */
+    public static final class Series {
+        private final String name;
+        private final String[] labels;
+        private final int hash;
+        private final Aggregation aggregation;
+        private long fingerprint;
+        private long[] timestamps = new long[INITIAL_SAMPLES];
+        private double[] values = new double[INITIAL_SAMPLES];
+        private int[] sources = new int[INITIAL_SAMPLES];
+        private int size;
+        // Records of samples merged into another one, as (sample index, record index) pairs
+        private int[] mergedSources = NO_MERGED_SOURCES;
+        private int mergedCount;
+
+        Series(String name, String[] labels, int hash, Aggregation aggregation) {
+            this.name = name;
+            this.labels = labels;
+            this.hash = hash;
+            this.aggregation = aggregation;
+        }
+
+        public String getName() { return name; }
+
+        public int labelCount() { return labels.length / 2; }
+
+        public String labelName(int index) { return labels[index * 2]; }
+
+        public String labelValue(int index) { return labels[index * 2 + 1]; }
+
+        public int size() { return size; }
+
+        /**
+         * 64-bit hash of the name and labels, the same for the series in every invocation, unlike
+         * the 32-bit hash of the buffer's table which is too short to tell series apart for good.
+         */
+        public long fingerprint() {
+            if (fingerprint == 0) {
+                long hash = fnv(0xcbf29ce484222325L, name);
+                for (String label : labels) {
+                    hash = fnv(hash, label);
+                }
+                // Zero marks a fingerprint not computed yet
+                fingerprint = mix(hash) | 1;
+            }
+            return fingerprint;
+        }
+
+        public long timestamp(int index) { return timestamps[index]; }
+
+        public double value(int index) { return values[index]; }
+
+        // Index of the record the sample came from
+        public int source(int index) { return sources[index]; }
+
+        /**
+         * Sets the indexes of the records samples {@code [from, to)} came from, including the
+         * records of the samples merged into them.
+         */
+        public void sources(int from, int to, BitSet records) {
+            for (int i = from; i < to; i++) {
+                records.set(sources[i]);
+            }
+            for (int i = 0; i < mergedCount; i++) {
+                int sample = mergedSources[i * 2];
+                if (sample >= from && sample < to) {
+                    records.set(mergedSources[i * 2 + 1]);
+                }
+            }
+        }
+
+        void add(long timestamp, double value, int source) {
+            if (size == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+                sources = Arrays.copyOf(sources, size * 2);
+            }
+            timestamps[size] = timestamp;
+            values[size] = value;
+            sources[size] = source;
+            size++;
+        }
+
+        // Drops the samples sent reports as sent, keeping the others in order
+        int removeSent(SentSamples sent) {
+            // New index of each sample, or -1 when removed; only needed once a sample goes
+            int[] newIndexes = null;
+            int out = 0;
+            for (int i = 0; i < size; i++) {
+                if (sent.isSent(this, timestamps[i])) {
+                    if (newIndexes == null) {
+                        newIndexes = new int[size];
+                        for (int j = 0; j < i; j++) {
+                            newIndexes[j] = j;
+                        }
+                    }
+                    newIndexes[i] = -1;
+                    continue;
+                }
+                if (newIndexes != null) {
+                    newIndexes[i] = out;
+                }
+                timestamps[out] = timestamps[i];
+                values[out] = values[i];
+                sources[out] = sources[i];
+                out++;
+            }
+            if (newIndexes == null) {
+                return 0;
+            }
+            int removed = size - out;
+            size = out;
+            // Merged sources of the removed samples go too, the others follow their sample
+            int kept = 0;
+            for (int i = 0; i < mergedCount; i++) {
+                int sample = newIndexes[mergedSources[i * 2]];
+                if (sample >= 0) {
+                    mergedSources[kept * 2] = sample;
+                    mergedSources[kept * 2 + 1] = mergedSources[i * 2 + 1];
+                    kept++;
+                }
+            }
+            mergedCount = kept;
+            return removed;
+        }
+
+        int aggregate(long windowMillis) {
+            int before = size;
+            sortByTimestamp();
+            compact(0);
+            if (windowMillis > 0) {
+                compact(windowMillis);
+            }
+            return before - size;
+        }
+
+        // Insertion sort of the parallel arrays, in place: series hold a handful of samples, which
+        // usually arrive in order. Stable, so the samples of a timestamp stay in the order they
+        // were received.
+        private void sortByTimestamp() {
+            for (int i = 1; i < size; i++) {
+                long timestamp = timestamps[i];
+                if (timestamps[i - 1] <= timestamp) {
+                    continue;
+                }
+                double value = values[i];
+                int source = sources[i];
+                int j = i - 1;
+                while (j >= 0 && timestamps[j] > timestamp) {
+                    timestamps[j + 1] = timestamps[j];
+                    values[j + 1] = values[j];
+                    sources[j + 1] = sources[j];
+                    j--;
+                }
+                timestamps[j + 1] = timestamp;
+                values[j + 1] = value;
+                sources[j + 1] = source;
+            }
+        }
+
+        // Folds consecutive samples with the same timestamp, or the same window when windowMillis
+        // is positive, into one. The samples must be sorted by timestamp.
+        private void compact(long windowMillis) {
+            int mergedBefore = mergedCount;
+            int nextMerged = 0;
+            int out = -1;
+            for (int i = 0; i < size; i++) {
+                long timestamp = windowMillis > 0
+                        ? Math.floorDiv(timestamps[i], windowMillis) * windowMillis
+                        : timestamps[i];
+                if (out >= 0 && timestamps[out] == timestamp) {
+                    values[out] = windowMillis > 0 ? aggregation.combine(values[out], values[i]) : values[i];
+                    if (sources[i] != sources[out]) {
+                        addMergedSource(out, sources[i]);
+                    }
+                } else {
+                    out++;
+                    timestamps[out] = timestamp;
+                    values[out] = values[i];
+                    sources[out] = sources[i];
+                }
+                // Earlier merges point at sample indexes, which move along with their sample
+                while (nextMerged < mergedBefore && mergedSources[nextMerged * 2] == i) {
+                    mergedSources[nextMerged * 2] = out;
+                    nextMerged++;
+                }
+            }
+            size = out + 1;
+        }
+
+        private void addMergedSource(int sample, int source) {
+            if (mergedCount * 2 == mergedSources.length) {
+                mergedSources = Arrays.copyOf(mergedSources, Math.max(8, mergedSources.length * 2));
+            }
+            mergedSources[mergedCount * 2] = sample;
+            mergedSources[mergedCount * 2 + 1] = source;
+            mergedCount++;
+        }
+
+        // FNV-1a over the chars of value, then a separator
+        private static long fnv(long hash, String value) {
+            for (int i = 0; i < value.length(); i++) {
+                hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+            }
+            return (hash ^ 0xffff) * 0x100000001b3L;
+        }
+
+        // Finalizer of MurmurHash3
+        private static long mix(long hash) {
+            hash ^= hash >>> 33;
+            hash *= 0xff51afd7ed558ccdL;
+            hash ^= hash >>> 33;
+            hash *= 0xc4ceb9fe1a85ec53L;
+            hash ^= hash >>> 33;
+            return hash;
+        }
+
+        private boolean matches(String otherName, String[] otherLabels, int otherLabelCount) {
+            if (labels.length != otherLabelCount * 2 || !name.equals(otherName)) {
+                return false;
+            }
+            for (int i = 0; i < labels.length; i++) {
+                if (!labels[i].equals(otherLabels[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
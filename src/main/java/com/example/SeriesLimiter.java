@@ -0,0 +1,158 @@
+package com.example;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caps the number of distinct series of each CloudWatch metric, set with
+ * {@code SERIES_LIMIT_PER_METRIC}, so one high-cardinality metric cannot blow up the AMP series
+ * count and query latency.
+ *
+ * The series of each metric are counted with a HyperLogLog sketch of 1 KiB, about 3% standard
+ * error, instead of a set of every label set. Once a metric's estimate exceeds the limit, only the
+ * series whose hash falls in the first {@code limit / estimate} of the hash space are admitted: about
+ * {@code limit} series, and the same ones from one invocation to the next rather than whichever come
+ * first. The sketches live as long as the container and are restarted every hour, letting metrics
+ * whose series churned away admit new ones. A restarted sketch starts from the previous estimate,
+ * so a metric already over its limit is not let through while its new sketch fills up.
+ *
+ * Checking a series does not allocate. Thread-safe.
+ */
+public class SeriesLimiter {
+
+    static final long RESET_INTERVAL_MILLIS = 60 * 60 * 1000;
+
+    private static final int PRECISION = 10;
+    private static final int REGISTERS = 1 << PRECISION;
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / REGISTERS);
+    private static final long SAMPLING_SEED = 0x9e3779b97f4a7c15L;
+
+    private final int limit;
+    // namespace -> metric name -> sketch, two levels so lookups need no composite key
+    private volatile ConcurrentHashMap<String, ConcurrentHashMap<String, Sketch>> sketches = new ConcurrentHashMap<>();
+    private volatile ConcurrentHashMap<String, ConcurrentHashMap<String, Sketch>> previousSketches = new ConcurrentHashMap<>();
+    private long resetAtMillis;
+
+    /**
+     * @param limit maximum number of series per metric, zero or less for no limit
+     */
+    public SeriesLimiter(int limit) {
+        this.limit = limit;
+    }
+
+    public boolean isEnabled() {
+        return limit > 0;
+    }
+
+    /**
+     * Counts the series identified by {@code seriesHash} for the metric and tells whether it is
+     * admitted.
+     */
+    public boolean admit(String namespace, String metricName, long seriesHash) {
+        if (limit <= 0) {
+            return true;
+        }
+        String namespaceKey = namespace != null ? namespace : "";
+        ConcurrentHashMap<String, Sketch> metrics =
+                sketches.computeIfAbsent(namespaceKey, key -> new ConcurrentHashMap<>());
+        Sketch sketch = metrics.get(metricName);
+        if (sketch == null) {
+            sketch = metrics.computeIfAbsent(metricName, key -> new Sketch(previousEstimate(namespaceKey, key)));
+        }
+        return sketch.offer(seriesHash, limit);
+    }
+
+    private double previousEstimate(String namespace, String metricName) {
+        ConcurrentHashMap<String, Sketch> metrics = previousSketches.get(namespace);
+        Sketch previous = metrics != null ? metrics.get(metricName) : null;
+        return previous != null ? previous.currentEstimate() : 0;
+    }
+
+    /**
+     * Restarts every sketch once the reset interval has elapsed. Called once per invocation.
+     */
+    public synchronized void resetIfDue(long nowMillis) {
+        if (nowMillis >= resetAtMillis) {
+            // A container idle for longer than an interval starts from scratch
+            previousSketches = nowMillis - resetAtMillis < RESET_INTERVAL_MILLIS
+                    ? sketches : new ConcurrentHashMap<>();
+            sketches = new ConcurrentHashMap<>();
+            resetAtMillis = nowMillis + RESET_INTERVAL_MILLIS;
+        }
+    }
+
+    public synchronized void clear() {
+        sketches = new ConcurrentHashMap<>();
+        previousSketches = new ConcurrentHashMap<>();
+        resetAtMillis = 0;
+    }
+
+    /**
+     * Hash of the first {@code labelCount} name/value pairs of {@code labels}, independent of
+     * their order since the series buffer sorts them in place.
+     */
+    public static long seriesHash(String[] labels, int labelCount) {
+        long hash = 0;
+        for (int i = 0; i < labelCount * 2; i += 2) {
+            hash += mix(((long) labels[i].hashCode() << 32) | (labels[i + 1].hashCode() & 0xffffffffL));
+        }
+        return mix(hash);
+    }
+
+    // Finalizer of MurmurHash3, spreads every input bit over the 64 bits
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static final class Sketch {
+        private final byte[] registers = new byte[REGISTERS];
+        // Kept up to date on every register change so the estimate is O(1)
+        private double inverseSum = REGISTERS;
+        private int zeroRegisters = REGISTERS;
+        // Estimate of the previous interval
+        private final double floor;
+
+        Sketch(double floor) {
+            this.floor = floor;
+        }
+
+        synchronized boolean offer(long hash, int limit) {
+            int index = (int) (hash >>> (64 - PRECISION));
+            // Position of the first set bit of the remaining bits, capped by the sentinel bit
+            int rank = Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1;
+            int current = registers[index];
+            if (rank > current) {
+                registers[index] = (byte) rank;
+                inverseSum += Math.scalb(1.0, -rank) - Math.scalb(1.0, -current);
+                if (current == 0) {
+                    zeroRegisters--;
+                }
+            }
+
+            double estimate = Math.max(estimate(), floor);
+            if (estimate <= limit) {
+                return true;
+            }
+            // Rehashed so the sample does not depend on the bits that picked the register
+            double position = (mix(hash ^ SAMPLING_SEED) >>> 11) * 0x1.0p-53;
+            return position < limit / estimate;
+        }
+
+        synchronized double currentEstimate() {
+            return estimate();
+        }
+
+        private double estimate() {
+            double estimate = ALPHA * REGISTERS * REGISTERS / inverseSum;
+            // Linear counting is more accurate for small cardinalities
+            if (estimate <= 2.5 * REGISTERS && zeroRegisters > 0) {
+                return REGISTERS * Math.log((double) REGISTERS / zeroRegisters);
+            }
+            return estimate;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.example;
+
+import java.io.IOException;
+
+/**
+ * Picks how many samples go into each remote-write request and over how many shards, sent
+ * concurrently, the requests of an invocation are spread. Like the shard scaling of Prometheus's
+ * own remote-write queue manager, both adapt to how AMP answers, here with additive increase and
+ * multiplicative decrease:
+ *
+ * <ul>
+ * <li>an answer within the target latency grows the requests by a tenth of the sample limit and
+ * adds a shard, up to the limits</li>
+ * <li>a slower answer shrinks the requests by a quarter</li>
+ * <li>throttling (429), server errors and connection failures halve the shards</li>
+ * <li>a request too large (413) halves the requests and keeps them under half its size from then on</li>
+ * </ul>
+ *
+ * The sizes start at the limits, the behaviour of a fixed configuration, and only back off once
+ * AMP pushes back. They live as long as the execution environment, so each invocation starts from
+ * what the previous ones learnt.
+ *
+ * Thread-safe: the shards report their outcomes concurrently.
+ */
+public class ShardSizer {
+
+    private static final int MIN_SAMPLES_PER_REQUEST = 100;
+
+    private final int minSamplesPerRequest;
+    private final int maxShards;
+    private final long targetLatencyNanos;
+    private int maxSamplesPerRequest;
+    private int samplesPerRequest;
+    private int shards;
+
+    public ShardSizer(int maxSamplesPerRequest, int maxShards, long targetLatencyMillis) {
+        this.minSamplesPerRequest = Math.min(MIN_SAMPLES_PER_REQUEST, maxSamplesPerRequest);
+        this.maxSamplesPerRequest = maxSamplesPerRequest;
+        this.maxShards = maxShards;
+        this.targetLatencyNanos = targetLatencyMillis * 1_000_000L;
+        this.samplesPerRequest = maxSamplesPerRequest;
+        this.shards = maxShards;
+    }
+
+    public synchronized int samplesPerRequest() {
+        return samplesPerRequest;
+    }
+
+    public synchronized int shards() {
+        return shards;
+    }
+
+    /**
+     * Records a request AMP accepted after {@code latencyNanos}.
+     */
+    public synchronized void onSuccess(long latencyNanos) {
+        if (latencyNanos <= targetLatencyNanos) {
+            samplesPerRequest = Math.min(maxSamplesPerRequest,
+                    samplesPerRequest + Math.max(1, maxSamplesPerRequest / 10));
+            shards = Math.min(maxShards, shards + 1);
+        } else {
+            samplesPerRequest = Math.max(minSamplesPerRequest, samplesPerRequest * 3 / 4);
+        }
+    }
+
+    /**
+     * Records a request of {@code sampleCount} samples that failed with {@code failure}.
+     */
+    public synchronized void onFailure(IOException failure, int sampleCount) {
+        int statusCode = failure instanceof RemoteWriteException
+                ? ((RemoteWriteException) failure).getStatusCode() : 0;
+        if (statusCode == 413) {
+            maxSamplesPerRequest = Math.max(minSamplesPerRequest, Math.min(maxSamplesPerRequest, sampleCount / 2));
+            samplesPerRequest = Math.min(samplesPerRequest, maxSamplesPerRequest);
+        } else if (RetryPolicy.isRetryable(failure)) {
+            shards = Math.max(1, shards / 2);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.example;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * FIFO of remote-write request bodies in a memory-mapped segment file under {@code /tmp}, which
+ * outlives the invocation and a crash of the runtime process, though not the execution environment.
+ *
+ * The file is mapped once, on first use, and holds a header followed by the entries:
+ *
+ * <pre>
+ * header: int magic, int version, int head, int tail
+ * entry:  int length, int crc32, byte[length] body
+ * </pre>
+ *
+ * Entries are appended at the tail and removed from the head. The head and tail are written
+ * together, as one long, and only once the entries they cover are in place, so a crash of the
+ * process at any point leaves the queue as it was before or after the operation. A file left by a
+ * previous process is reopened, keeping its entries up to the first one that fails its checksum.
+ *
+ * When the tail reaches the end of the segment, the live entries are copied back to the start,
+ * but only into the free space before the head, so that the originals stay intact until the
+ * positions move. While they do not fit there, the queue is full.
+ *
+ * Thread-safe.
+ */
+public class SpillQueue {
+
+    private static final int MAGIC = 0x53504c31; // "SPL1"
+    private static final int VERSION = 2;
+    // Head in the high half, tail in the low half
+    private static final int POSITIONS_OFFSET = 8;
+    private static final int HEADER_BYTES = 16;
+    private static final int ENTRY_HEADER_BYTES = 8;
+    private static final int COMPACT_CHUNK_BYTES = 64 * 1024;
+
+    private final Path file;
+    private final int capacityBytes;
+    private final CRC32 crc = new CRC32();
+    private MappedByteBuffer segment;
+    private int head;
+    private int tail;
+    private int count;
+
+    /**
+     * @param capacityBytes room for the entries, their 8-byte headers included
+     */
+    public SpillQueue(Path file, int capacityBytes) {
+        if (capacityBytes <= 0 || capacityBytes > Integer.MAX_VALUE - HEADER_BYTES) {
+            throw new IllegalArgumentException("Invalid spill capacity: " + capacityBytes);
+        }
+        this.file = file;
+        this.capacityBytes = capacityBytes;
+    }
+
+    /**
+     * Appends the remaining bytes of {@code body}, leaving the buffer itself untouched, and returns
+     * false when the segment has no room left for them.
+     */
+    public synchronized boolean offer(ByteBuffer body) throws IOException {
+        open();
+        int length = body.remaining();
+        int entryBytes = ENTRY_HEADER_BYTES + length;
+        if (end() - tail < entryBytes) {
+            compact();
+            if (end() - tail < entryBytes) {
+                return false;
+            }
+        }
+        // The tail is moved last, so a crash halfway leaves the entry out
+        segment.putInt(tail, length);
+        segment.putInt(tail + 4, checksum(body.duplicate()));
+        ByteBuffer target = segment.duplicate();
+        target.position(tail + ENTRY_HEADER_BYTES);
+        target.put(body.duplicate());
+        setPositions(head, tail + entryBytes);
+        count++;
+        return true;
+    }
+
+    /**
+     * The oldest body, or null when the queue is empty.
+     */
+    public synchronized byte[] peek() throws IOException {
+        open();
+        if (count == 0) {
+            return null;
+        }
+        byte[] body = new byte[segment.getInt(head)];
+        ByteBuffer source = segment.duplicate();
+        source.position(head + ENTRY_HEADER_BYTES);
+        source.get(body);
+        return body;
+    }
+
+    /**
+     * Removes the oldest body.
+     */
+    public synchronized void remove() throws IOException {
+        open();
+        if (count == 0) {
+            return;
+        }
+        int next = head + ENTRY_HEADER_BYTES + segment.getInt(head);
+        count--;
+        // Start over at the beginning of the segment once empty, no compaction needed
+        if (count == 0) {
+            setPositions(HEADER_BYTES, HEADER_BYTES);
+        } else {
+            setPositions(next, tail);
+        }
+    }
+
+    public synchronized boolean isEmpty() {
+        return count == 0;
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Bytes taken by the queued entries, headers included.
+     */
+    public synchronized long bytes() {
+        return tail - head;
+    }
+
+    private int end() {
+        return HEADER_BYTES + capacityBytes;
+    }
+
+    private void open() throws IOException {
+        if (segment != null) {
+            return;
+        }
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        // The mapping stays valid once the channel is closed
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, end());
+        }
+        recover();
+    }
+
+    private void recover() {
+        head = HEADER_BYTES;
+        tail = HEADER_BYTES;
+        count = 0;
+        if (segment.getInt(0) == MAGIC && segment.getInt(4) == VERSION) {
+            long positions = segment.getLong(POSITIONS_OFFSET);
+            int savedHead = (int) (positions >>> 32);
+            int savedTail = (int) positions;
+            if (savedHead >= HEADER_BYTES && savedHead <= savedTail && savedTail <= end()) {
+                head = savedHead;
+                tail = head;
+                while (tail < savedTail && isValidEntry(tail, savedTail)) {
+                    tail += ENTRY_HEADER_BYTES + segment.getInt(tail);
+                    count++;
+                }
+            }
+        }
+        segment.putInt(0, MAGIC);
+        segment.putInt(4, VERSION);
+        if (count == 0) {
+            setPositions(HEADER_BYTES, HEADER_BYTES);
+        } else {
+            setPositions(head, tail);
+        }
+    }
+
+    private boolean isValidEntry(int position, int limit) {
+        if (limit - position < ENTRY_HEADER_BYTES) {
+            return false;
+        }
+        int length = segment.getInt(position);
+        if (length < 0 || length > limit - position - ENTRY_HEADER_BYTES) {
+            return false;
+        }
+        ByteBuffer source = segment.duplicate();
+        source.position(position + ENTRY_HEADER_BYTES).limit(position + ENTRY_HEADER_BYTES + length);
+        return checksum(source) == segment.getInt(position + 4);
+    }
+
+    // Copies the live entries to the start of the segment when they fit before the head: the
+    // originals are only given up by moving the positions, once the copy is complete
+    private void compact() {
+        int length = tail - head;
+        if (head == HEADER_BYTES || length > head - HEADER_BYTES) {
+            return;
+        }
+        byte[] chunk = new byte[Math.min(COMPACT_CHUNK_BYTES, Math.max(length, 1))];
+        ByteBuffer source = segment.duplicate();
+        ByteBuffer target = segment.duplicate();
+        source.position(head);
+        target.position(HEADER_BYTES);
+        for (int moved = 0; moved < length; ) {
+            int n = Math.min(chunk.length, length - moved);
+            source.get(chunk, 0, n);
+            target.put(chunk, 0, n);
+            moved += n;
+        }
+        setPositions(HEADER_BYTES, HEADER_BYTES + length);
+    }
+
+    // One aligned store, after every write to the entries it makes live
+    private void setPositions(int head, int tail) {
+        this.head = head;
+        this.tail = tail;
+        VarHandle.storeStoreFence();
+        segment.putLong(POSITIONS_OFFSET, (long) head << 32 | tail);
+    }
+
+    private int checksum(ByteBuffer body) {
+        crc.reset();
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+}
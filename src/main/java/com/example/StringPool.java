@@ -0,0 +1,111 @@
+package com.example;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Bounded pool of the strings metric streams repeat in every record: namespaces, metric names,
+ * dimension names and values, account ids and regions.
+ *
+ * Strings are looked up straight from the parser's character or UTF-8 byte buffer, so a string
+ * already in the pool costs no allocation. The pool is direct-mapped: a new string takes the slot of its hash,
+ * evicting whatever was there, which bounds the memory without any bookkeeping. High cardinality
+ * dimensions only cost some misses.
+ *
+ * Thread-safe: slots hold immutable strings, a racing update at worst loses an entry.
+ */
+public class StringPool {
+
+    public static final int DEFAULT_SIZE = 16384;
+
+    private final String[] slots;
+    private final int mask;
+
+    public StringPool() {
+        this(DEFAULT_SIZE);
+    }
+
+    /**
+     * @param size number of slots, rounded up to a power of two; zero disables pooling
+     */
+    public StringPool(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size must not be negative: " + size);
+        }
+        int capacity = size == 0 ? 0 : Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+        this.slots = new String[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Returns the string of {@code chars[offset, offset + length)}, from the pool when it is there.
+     */
+    public String intern(char[] chars, int offset, int length) {
+        if (slots.length == 0) {
+            return new String(chars, offset, length);
+        }
+        // Same hash as String.hashCode(), spread for the table index
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        int slot = (hash ^ (hash >>> 16)) & mask;
+
+        String pooled = slots[slot];
+        if (pooled != null && pooled.hashCode() == hash && matches(pooled, chars, offset, length)) {
+            return pooled;
+        }
+        String string = new String(chars, offset, length);
+        slots[slot] = string;
+        return string;
+    }
+
+    /**
+     * Returns the string of the UTF-8 bytes {@code bytes[offset, offset + length)}, from the pool
+     * when it is there. Only ASCII strings are pooled.
+     */
+    public String intern(byte[] bytes, int offset, int length) {
+        if (slots.length == 0) {
+            return new String(bytes, offset, length, StandardCharsets.UTF_8);
+        }
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            if (bytes[i] < 0) {
+                return new String(bytes, offset, length, StandardCharsets.UTF_8);
+            }
+            hash = 31 * hash + bytes[i];
+        }
+        int slot = (hash ^ (hash >>> 16)) & mask;
+
+        String pooled = slots[slot];
+        if (pooled != null && pooled.hashCode() == hash && matches(pooled, bytes, offset, length)) {
+            return pooled;
+        }
+        String string = new String(bytes, offset, length, StandardCharsets.US_ASCII);
+        slots[slot] = string;
+        return string;
+    }
+
+    private static boolean matches(String pooled, byte[] bytes, int offset, int length) {
+        if (pooled.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (pooled.charAt(i) != bytes[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matches(String pooled, char[] chars, int offset, int length) {
+        if (pooled.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (pooled.charAt(i) != chars[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,111 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BufferPoolTest {
+
+    private static final int KIB = 1024;
+
+    private final BufferPool pool = new BufferPool(BufferPool.DEFAULT_MAX_POOLED_BYTES);
+
+    @Test
+    void roundsCapacitiesUpToTheirClass() {
+        assertEquals(4 * KIB, pool.acquire(0).capacity());
+        assertEquals(4 * KIB, pool.acquire(4 * KIB).capacity());
+        assertEquals(8 * KIB, pool.acquire(4 * KIB + 1).capacity());
+        assertTrue(pool.acquire(100).isDirect());
+    }
+
+    @Test
+    void reusesAReleasedBuffer() {
+        ByteBuffer buffer = pool.acquire(5000);
+        buffer.put(new byte[100]).flip();
+        pool.release(buffer);
+
+        ByteBuffer reused = pool.acquire(6000);
+        assertSame(buffer, reused);
+        // Cleared for its new owner
+        assertEquals(0, reused.position());
+        assertEquals(reused.capacity(), reused.limit());
+        // Other classes are not served from it
+        pool.release(reused);
+        assertTrue(pool.acquire(4 * KIB) != buffer);
+        assertTrue(pool.acquire(16 * KIB) != buffer);
+    }
+
+    @Test
+    void doesNotPoolBuffersLargerThanTheLargestClass() {
+        int capacity = 64 * KIB * KIB + 1;
+        ByteBuffer buffer = pool.acquire(capacity);
+        assertEquals(capacity, buffer.capacity());
+
+        pool.release(buffer);
+
+        assertTrue(pool.acquire(capacity) != buffer);
+    }
+
+    @Test
+    void ignoresBuffersItDidNotHandOut() {
+        ByteBuffer heap = ByteBuffer.allocate(4 * KIB);
+        ByteBuffer odd = ByteBuffer.allocateDirect(5000);
+        pool.release(heap);
+        pool.release(odd);
+        pool.release(null);
+
+        ByteBuffer buffer = pool.acquire(4 * KIB);
+        assertTrue(buffer != heap && buffer.isDirect());
+        assertTrue(pool.acquire(5000) != odd);
+    }
+
+    @Test
+    void handsOutABufferReleasedTwiceOnlyOnce() {
+        ByteBuffer buffer = pool.acquire(4 * KIB);
+        pool.release(buffer);
+        pool.release(buffer);
+
+        ByteBuffer first = pool.acquire(4 * KIB);
+        ByteBuffer second = pool.acquire(4 * KIB);
+        assertSame(buffer, first);
+        assertTrue(second != first);
+    }
+
+    @Test
+    void keepsAtMostItsMaximum() {
+        BufferPool small = new BufferPool(8 * KIB);
+        ByteBuffer a = small.acquire(4 * KIB);
+        ByteBuffer b = small.acquire(4 * KIB);
+        ByteBuffer c = small.acquire(4 * KIB);
+        small.release(a);
+        small.release(b);
+        small.release(c);
+
+        // Last released, first reused
+        assertSame(b, small.acquire(4 * KIB));
+        assertSame(a, small.acquire(4 * KIB));
+        ByteBuffer fresh = small.acquire(4 * KIB);
+        assertTrue(fresh != a && fresh != b && fresh != c);
+
+        // Room again once taken out
+        small.release(c);
+        assertSame(c, small.acquire(4 * KIB));
+    }
+
+    @Test
+    void dropsEveryBufferOnceCleared() {
+        ByteBuffer buffer = pool.acquire(4 * KIB);
+        pool.release(buffer);
+
+        pool.clear();
+
+        assertTrue(pool.acquire(4 * KIB) != buffer);
+        // And can pool it again
+        pool.release(buffer);
+        assertSame(buffer, pool.acquire(4 * KIB));
+    }
+}
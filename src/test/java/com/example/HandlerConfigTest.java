@@ -0,0 +1,50 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class HandlerConfigTest {
+
+    private static final String URL = "https://aps-workspaces.eu-north-1.amazonaws.com/workspaces/ws-1/api/v1/remote_write";
+
+    @Test
+    void readsTheRequiredSettings() {
+        HandlerConfig config = HandlerConfig.of(env(" " + URL + " ", "eu-north-1"));
+
+        assertEquals(URL, config.getRemoteWriteUrl());
+        assertEquals("eu-north-1", config.getRegion());
+    }
+
+    @Test
+    void requiresTheRemoteWriteUrl() {
+        assertMissing("PROMETHEUS_REMOTE_WRITE_URL", env(null, "eu-north-1"));
+        assertMissing("PROMETHEUS_REMOTE_WRITE_URL", env(" ", "eu-north-1"));
+    }
+
+    @Test
+    void requiresTheRegion() {
+        assertMissing("AWS_REGION", env(URL, null));
+        assertMissing("AWS_REGION", env(URL, ""));
+    }
+
+    private static void assertMissing(String name, Map<String, String> env) {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> HandlerConfig.of(env));
+        assertEquals(name + " must be set", e.getMessage());
+    }
+
+    private static Map<String, String> env(String remoteWriteUrl, String region) {
+        Map<String, String> env = new HashMap<>();
+        if (remoteWriteUrl != null) {
+            env.put("PROMETHEUS_REMOTE_WRITE_URL", remoteWriteUrl);
+        }
+        if (region != null) {
+            env.put("AWS_REGION", region);
+        }
+        return env;
+    }
+}
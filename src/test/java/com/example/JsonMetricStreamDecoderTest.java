@@ -0,0 +1,166 @@
+package com.example;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class JsonMetricStreamDecoderTest {
+
+    private static final String METRIC = "{\"metric_stream_name\":\"stream\",\"accountID\":\"123456789012\","
+            + "\"region\":\"eu-north-1\",\"namespace\":\"AWS/DynamoDB\",\"metricName\":\"ConsumedReadCapacityUnits\","
+            + "\"dimensions\":{\"TableName\":\"orders\",\"Operation\":\"GetItem\"},\"timestamp\":1617235200000,"
+            + "\"value\":{\"max\":5.0,\"min\":1.0,\"sum\":10.0,\"count\":4.0,\"p99\":4.5},\"unit\":\"Count\"}";
+
+    private final JsonMetricStreamDecoder decoder = new JsonMetricStreamDecoder();
+
+    @Test
+    void decodesAMetric() throws IOException {
+        List<LambdaHandler.MetricStreamData> metrics = decode(METRIC);
+
+        assertEquals(1, metrics.size());
+        LambdaHandler.MetricStreamData metric = metrics.get(0);
+        assertEquals("stream", metric.getMetricStreamName());
+        assertEquals("123456789012", metric.getAccountID());
+        assertEquals("eu-north-1", metric.getRegion());
+        assertEquals("AWS/DynamoDB", metric.getNamespace());
+        assertEquals("ConsumedReadCapacityUnits", metric.getMetricName());
+        assertEquals("Count", metric.getUnit());
+        assertEquals(1_617_235_200_000L, metric.getTimestamp());
+        // Sorted by name
+        assertEquals(2, metric.dimensionCount());
+        assertEquals("Operation", metric.dimensionName(0));
+        assertEquals("GetItem", metric.dimensionValue(0));
+        assertEquals("TableName", metric.dimensionName(1));
+        assertEquals("orders", metric.dimensionValue(1));
+
+        LambdaHandler.Value value = metric.getValue();
+        assertEquals(4, value.getCount());
+        assertEquals(10, value.getSum());
+        assertEquals(5, value.getMax());
+        assertEquals(1, value.getMin());
+        assertEquals(1, value.percentileCount());
+        assertEquals("p99", value.percentileName(0));
+        assertEquals(4.5, value.percentileValue(0));
+    }
+
+    @Test
+    void skipsUnknownFields() throws IOException {
+        String json = "{\"metricName\":\"m\",\"extra\":{\"nested\":[1,{\"metricName\":\"x\"}]},\"tags\":[\"a\"],"
+                + "\"timestamp\":60000,\"value\":{\"count\":1,\"avg\":{\"x\":1},\"p50\":\"n/a\",\"sum\":2},"
+                + "\"flag\":true,\"dimensions\":null}";
+
+        List<LambdaHandler.MetricStreamData> metrics = decode(json);
+
+        assertEquals(1, metrics.size());
+        LambdaHandler.MetricStreamData metric = metrics.get(0);
+        assertEquals("m", metric.getMetricName());
+        assertEquals(60_000, metric.getTimestamp());
+        assertEquals(0, metric.dimensionCount());
+        assertEquals(1, metric.getValue().getCount());
+        assertEquals(2, metric.getValue().getSum());
+        // Neither an object nor a non-numeric percentile is a statistic
+        assertEquals(0, metric.getValue().percentileCount());
+    }
+
+    @Test
+    void readsMissingStatisticsAsZero() throws IOException {
+        LambdaHandler.Value value = decode("{\"metricName\":\"m\",\"value\":{\"sum\":3}}").get(0).getValue();
+
+        assertEquals(3, value.getSum());
+        assertEquals(0, value.getCount());
+        assertEquals(0, value.getMax());
+        assertEquals(0, value.getMin());
+        assertEquals(0, value.percentileCount());
+
+        // The handler drops a record with a metric without value
+        assertNull(decode("{\"metricName\":\"m\"}").get(0).getValue());
+        assertNull(decode("{\"metricName\":\"m\",\"value\":null}").get(0).getValue());
+    }
+
+    @Test
+    void readsNewlineDelimitedMetrics() throws IOException {
+        String json = "\n" + METRIC + "\n\n" + METRIC.replace("orders", "items") + "\r\n  \n"
+                + METRIC.replace("orders", "users") + "\n\n";
+
+        List<LambdaHandler.MetricStreamData> metrics = decode(json);
+
+        assertEquals(3, metrics.size());
+        assertEquals("orders", metrics.get(0).dimensionValue(1));
+        assertEquals("items", metrics.get(1).dimensionValue(1));
+        assertEquals("users", metrics.get(2).dimensionValue(1));
+        // Repeated strings come from the pool
+        assertSame(metrics.get(0).getMetricName(), metrics.get(2).getMetricName());
+    }
+
+    @Test
+    void readsNothingFromABlankRecord() throws IOException {
+        assertEquals(0, decode("").size());
+        assertEquals(0, decode("\n \r\n\n").size());
+    }
+
+    @Test
+    void readsGzippedAndDirectPayloads() throws IOException {
+        String json = METRIC + "\n" + METRIC + "\n";
+
+        assertEquals(2, decode(ByteBuffer.wrap(gzip(json))).size());
+
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes).flip();
+        assertEquals(2, decode(direct).size());
+        assertEquals(0, direct.position());
+    }
+
+    @Test
+    void rejectsMalformedInput() {
+        assertThrows(IOException.class, () -> decode(METRIC + "\n{broken\n"));
+        assertThrows(JsonParseException.class, () -> decode("[" + METRIC + "]"));
+        assertThrows(JsonParseException.class, () -> decode("{\"metricName\":\"m\",\"timestamp\":\"soon\"}"));
+        assertThrows(JsonParseException.class, () -> decode("{\"metricName\":\"m\",\"value\":{\"sum\":\"3\"}}"));
+        assertThrows(JsonParseException.class, () -> decode("{\"metricName\":\"m\",\"dimensions\":{\"a\":[1]}}"));
+        assertThrows(JsonParseException.class, () -> decode("{\"metricName\":{\"a\":1}}"));
+    }
+
+    @Test
+    void decodesTheNextRecordAfterAMalformedOne() throws IOException {
+        // Only the metrics before the error reach the consumer; the handler drops the whole record
+        List<LambdaHandler.MetricStreamData> partial = new ArrayList<>();
+        assertThrows(IOException.class, () -> decoder.decode(
+                ByteBuffer.wrap((METRIC + "\n{\"metricName\":\n").getBytes(StandardCharsets.UTF_8)), partial::add));
+        assertEquals(1, partial.size());
+
+        List<LambdaHandler.MetricStreamData> metrics = decode(METRIC);
+        assertEquals(1, metrics.size());
+        assertEquals(2, metrics.get(0).dimensionCount());
+    }
+
+    private List<LambdaHandler.MetricStreamData> decode(String json) throws IOException {
+        return decode(ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private List<LambdaHandler.MetricStreamData> decode(ByteBuffer data) throws IOException {
+        List<LambdaHandler.MetricStreamData> metrics = new ArrayList<>();
+        decoder.decode(data, metrics::add);
+        return metrics;
+    }
+
+    private static byte[] gzip(String json) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(json.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,140 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LabelRulesTest {
+
+    @Test
+    void keepsEveryDimensionWithoutRules() {
+        assertSame(LabelRules.NONE, LabelRules.parse(null));
+        assertSame(LabelRules.NONE, LabelRules.parse(" "));
+        assertTrue(LabelRules.NONE.isEmpty());
+        assertEquals(LabelRules.Action.KEEP, LabelRules.NONE.forNamespace("AWS/EC2").ruleFor("InstanceId").getAction());
+    }
+
+    @Test
+    void dropsTheListedDimensions() {
+        LabelRules rules = LabelRules.parse("AWS/DynamoDB:drop:Operation, TableName");
+        LabelRules.Namespace dynamoDb = rules.forNamespace("AWS/DynamoDB");
+
+        assertEquals(LabelRules.Action.DROP, dynamoDb.ruleFor("Operation").getAction());
+        assertEquals(LabelRules.Action.DROP, dynamoDb.ruleFor("TableName").getAction());
+        assertEquals(LabelRules.Action.KEEP, dynamoDb.ruleFor("GlobalSecondaryIndexName").getAction());
+        // Other namespaces are left alone
+        assertEquals(LabelRules.Action.KEEP, rules.forNamespace("AWS/EC2").ruleFor("Operation").getAction());
+    }
+
+    @Test
+    void keepDropsEveryOtherDimensionButRenamedAndHashedOnes() {
+        LabelRules.Namespace rules = LabelRules.parse(
+                "AWS/ELB:keep:LoadBalancerName;AWS/ELB:rename:AvailabilityZone=zone;AWS/ELB:hash:Target=8")
+                .forNamespace("AWS/ELB");
+
+        assertEquals(LabelRules.Action.KEEP, rules.ruleFor("LoadBalancerName").getAction());
+        assertEquals(LabelRules.Action.DROP, rules.ruleFor("Other").getAction());
+        assertEquals(LabelRules.Action.RENAME, rules.ruleFor("AvailabilityZone").getAction());
+        assertEquals("zone", rules.ruleFor("AvailabilityZone").getLabel());
+        assertEquals(LabelRules.Action.HASH, rules.ruleFor("Target").getAction());
+    }
+
+    @Test
+    void hashesValuesIntoAStableSetOfBuckets() {
+        LabelRules.Rule rule = LabelRules.parse("*:hash:InstanceId=16").forNamespace("AWS/EC2").ruleFor("InstanceId");
+
+        Set<String> buckets = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            String bucket = rule.bucket("i-" + i);
+            assertEquals(bucket, rule.bucket("i-" + i));
+            buckets.add(bucket);
+        }
+        assertEquals(16, buckets.size());
+        for (String bucket : buckets) {
+            int value = Integer.parseInt(bucket);
+            assertTrue(value >= 0 && value < 16, bucket);
+        }
+        assertNull(rule.getLabel());
+    }
+
+    @Test
+    void namespaceRulesOverrideTheAnyNamespaceRules() {
+        LabelRules rules = LabelRules.parse("*:drop:InstanceId,Operation;AWS/EC2:rename:InstanceId=instance");
+
+        LabelRules.Namespace ec2 = rules.forNamespace("AWS/EC2");
+        assertEquals(LabelRules.Action.RENAME, ec2.ruleFor("InstanceId").getAction());
+        assertEquals(LabelRules.Action.DROP, ec2.ruleFor("Operation").getAction());
+
+        LabelRules.Namespace other = rules.forNamespace("AWS/Lambda");
+        assertEquals(LabelRules.Action.DROP, other.ruleFor("InstanceId").getAction());
+        assertEquals(LabelRules.Action.DROP, rules.forNamespace(null).ruleFor("Operation").getAction());
+    }
+
+    @Test
+    void namespaceKeepListReplacesTheAnyNamespaceKeepList() {
+        LabelRules rules = LabelRules.parse("*:keep:FunctionName;AWS/EC2:keep:InstanceId");
+
+        LabelRules.Namespace ec2 = rules.forNamespace("AWS/EC2");
+        assertEquals(LabelRules.Action.KEEP, ec2.ruleFor("InstanceId").getAction());
+        assertEquals(LabelRules.Action.DROP, ec2.ruleFor("FunctionName").getAction());
+        assertEquals(LabelRules.Action.KEEP, rules.forNamespace("AWS/Lambda").ruleFor("FunctionName").getAction());
+    }
+
+    @Test
+    void laterEntriesWin() {
+        LabelRules.Namespace rules = LabelRules.parse("AWS/EC2:drop:InstanceId;AWS/EC2:hash:InstanceId=4")
+                .forNamespace("AWS/EC2");
+
+        assertEquals(LabelRules.Action.HASH, rules.ruleFor("InstanceId").getAction());
+    }
+
+    @Test
+    void ignoresEmptyEntriesAndActionCase() {
+        LabelRules rules = LabelRules.parse(";AWS/EC2:DROP:InstanceId;;");
+
+        assertEquals(LabelRules.Action.DROP, rules.forNamespace("AWS/EC2").ruleFor("InstanceId").getAction());
+    }
+
+    @Test
+    void rejectsMalformedEntries() {
+        assertInvalid("AWS/EC2:drop");
+        assertInvalid(":drop:InstanceId");
+        assertInvalid("AWS/EC2:drop: ");
+        assertInvalid("AWS/EC2:remove:InstanceId");
+        assertInvalid("AWS/EC2:rename:InstanceId");
+        assertInvalid("AWS/EC2:rename:=instance");
+        assertInvalid("AWS/EC2:rename:InstanceId=");
+    }
+
+    @Test
+    void rejectsInvalidAndReservedLabelNames() {
+        assertInvalid("AWS/EC2:rename:InstanceId=1instance");
+        assertInvalid("AWS/EC2:rename:InstanceId=instance-id");
+        assertInvalid("AWS/EC2:rename:InstanceId=__name__");
+        assertInvalid("AWS/EC2:rename:InstanceId=namespace");
+        assertInvalid("AWS/EC2:rename:InstanceId=account_id");
+        assertInvalid("AWS/EC2:rename:InstanceId=region");
+        assertInvalid("AWS/EC2:rename:InstanceId=quantile");
+    }
+
+    @Test
+    void rejectsBucketCountsOutOfRange() {
+        assertInvalid("AWS/EC2:hash:InstanceId=0");
+        assertInvalid("AWS/EC2:hash:InstanceId=10001");
+        assertInvalid("AWS/EC2:hash:InstanceId=many");
+        assertEquals(LabelRules.Action.HASH, LabelRules.parse("AWS/EC2:hash:InstanceId=10000")
+                .forNamespace("AWS/EC2").ruleFor("InstanceId").getAction());
+    }
+
+    private static void assertInvalid(String spec) {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> LabelRules.parse(spec), spec);
+        assertTrue(e.getMessage().startsWith("Invalid LABEL_RULES entry"), e.getMessage());
+    }
+}
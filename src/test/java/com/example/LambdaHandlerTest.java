@@ -0,0 +1,193 @@
+package com.example;
+
+import com.amazonaws.services.lambda.runtime.ClientContext;
+import com.amazonaws.services.lambda.runtime.CognitoIdentity;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.amazonaws.services.lambda.runtime.events.KinesisFirehoseEvent;
+import org.junit.jupiter.api.Test;
+import org.xerial.snappy.Snappy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LambdaHandlerTest {
+
+    private static final long TIMESTAMP = 1_700_000_040_000L;
+
+    @Test
+    void acknowledgesTheRecordsSent() {
+        LambdaHandler handler = handler(null, 0, 1);
+
+        assertEquals(Arrays.asList(
+                        LambdaHandler.KinesisFirehoseResponse.Result.Ok,
+                        LambdaHandler.KinesisFirehoseResponse.Result.Ok),
+                results(handler, record("a", "CPUUtilization"), record("b", "NetworkIn")));
+    }
+
+    @Test
+    void dropsOnlyTheMalformedRecord() {
+        LambdaHandler handler = handler(null, 0, 1);
+
+        assertEquals(Arrays.asList(
+                        LambdaHandler.KinesisFirehoseResponse.Result.Ok,
+                        LambdaHandler.KinesisFirehoseResponse.Result.Dropped,
+                        LambdaHandler.KinesisFirehoseResponse.Result.Dropped,
+                        LambdaHandler.KinesisFirehoseResponse.Result.Ok),
+                results(handler,
+                        record("a", "CPUUtilization"),
+                        record("b", "{broken"),
+                        // A metric without value, after a valid one: the whole record goes
+                        record("c", metric("NetworkOut") + "\n{\"metricName\":\"NoValue\",\"timestamp\":1}"),
+                        record("d", "NetworkIn")));
+    }
+
+    @Test
+    void failsTheRecordsOfARejectedRequest() {
+        // One metric per request, one request per shard
+        LambdaHandler handler = handler("Rejected", 400, 2);
+
+        assertEquals(Arrays.asList(
+                        LambdaHandler.KinesisFirehoseResponse.Result.ProcessingFailed,
+                        LambdaHandler.KinesisFirehoseResponse.Result.Ok,
+                        LambdaHandler.KinesisFirehoseResponse.Result.Dropped),
+                results(handler, record("a", "Rejected"), record("b", "CPUUtilization"), record("c", "{broken")));
+    }
+
+    @Test
+    void failsTheRequestsAfterAFailedOneInItsShard() {
+        LambdaHandler handler = handler("Rejected", 503, 1);
+
+        assertEquals(Arrays.asList(
+                        LambdaHandler.KinesisFirehoseResponse.Result.Ok,
+                        LambdaHandler.KinesisFirehoseResponse.Result.ProcessingFailed,
+                        LambdaHandler.KinesisFirehoseResponse.Result.ProcessingFailed),
+                results(handler, record("a", "CPUUtilization"), record("b", "Rejected"), record("c", "NetworkIn")));
+    }
+
+    private static LambdaHandler handler(String rejectedMetric, int statusCode, int shards) {
+        HandlerConfig config = config(shards);
+        return new LambdaHandler(config, new FailingSender(config, rejectedMetric, statusCode), null);
+    }
+
+    private static HandlerConfig config(int shards) {
+        Map<String, String> env = new HashMap<>();
+        env.put("PROMETHEUS_REMOTE_WRITE_URL", "http://localhost:9090/api/v1/remote_write");
+        env.put("AWS_REGION", "eu-north-1");
+        env.put("EMF_ENABLED", "false");
+        env.put("LOG_LEVEL", "ERROR");
+        env.put("PROCESSING_CONCURRENCY", "2");
+        env.put("MAX_IN_FLIGHT_REQUESTS", Integer.toString(shards));
+        // The four statistics of a metric
+        env.put("REMOTE_WRITE_MAX_SAMPLES_PER_REQUEST", "4");
+        env.put("SEND_MAX_ATTEMPTS", "1");
+        env.put("OUT_OF_ORDER_WINDOW_SECONDS", "0");
+        return HandlerConfig.of(env);
+    }
+
+    private static List<LambdaHandler.KinesisFirehoseResponse.Result> results(LambdaHandler handler,
+            KinesisFirehoseEvent.Record... records) {
+        KinesisFirehoseEvent event = new KinesisFirehoseEvent();
+        event.setRecords(Arrays.asList(records));
+        LambdaHandler.KinesisFirehoseResponse response = handler.handleRequest(event, new TestContext());
+
+        List<LambdaHandler.KinesisFirehoseResponse.Result> results = new ArrayList<>();
+        for (int i = 0; i < records.length; i++) {
+            LambdaHandler.KinesisFirehoseResponse.Record record = response.getRecords().get(i);
+            assertEquals(records[i].getRecordId(), record.getRecordId());
+            results.add(record.getResult());
+        }
+        return results;
+    }
+
+    private static KinesisFirehoseEvent.Record record(String recordId, String metricNameOrLine) {
+        String data = metricNameOrLine.startsWith("{") || metricNameOrLine.contains("\n")
+                ? metricNameOrLine : metric(metricNameOrLine);
+        KinesisFirehoseEvent.Record record = new KinesisFirehoseEvent.Record();
+        record.setRecordId(recordId);
+        record.setData(ByteBuffer.wrap((data + "\n").getBytes(StandardCharsets.UTF_8)));
+        return record;
+    }
+
+    private static String metric(String metricName) {
+        return "{\"metric_stream_name\":\"s\",\"accountID\":\"123456789012\",\"region\":\"eu-north-1\","
+                + "\"namespace\":\"AWS/EC2\",\"metricName\":\"" + metricName + "\","
+                + "\"dimensions\":{\"InstanceId\":\"i-1\"},\"timestamp\":" + TIMESTAMP + ","
+                + "\"value\":{\"max\":5.0,\"min\":1.0,\"sum\":30.0,\"count\":10.0},\"unit\":\"Percent\"}";
+    }
+
+    // Rejects the requests holding a series of the metric named, with the status given
+    private static final class FailingSender extends RemoteWriteSender {
+        private final String rejectedMetric;
+        private final int statusCode;
+
+        FailingSender(HandlerConfig config, String rejectedMetric, int statusCode) {
+            super(config, null, null);
+            this.rejectedMetric = rejectedMetric;
+            this.statusCode = statusCode;
+        }
+
+        @Override
+        public void send(ByteBuffer body, InvocationMetrics metrics) throws IOException {
+            byte[] compressed = new byte[body.remaining()];
+            body.duplicate().get(compressed);
+            String message = new String(Snappy.uncompress(compressed), StandardCharsets.ISO_8859_1);
+            if (rejectedMetric != null && message.contains(rejectedMetric)) {
+                throw new RemoteWriteException(statusCode, "rejected");
+            }
+        }
+    }
+
+    private static final class TestContext implements Context {
+        @Override
+        public String getAwsRequestId() { return "request"; }
+
+        @Override
+        public String getLogGroupName() { return null; }
+
+        @Override
+        public String getLogStreamName() { return null; }
+
+        @Override
+        public String getFunctionName() { return "function"; }
+
+        @Override
+        public String getFunctionVersion() { return null; }
+
+        @Override
+        public String getInvokedFunctionArn() { return null; }
+
+        @Override
+        public CognitoIdentity getIdentity() { return null; }
+
+        @Override
+        public ClientContext getClientContext() { return null; }
+
+        @Override
+        public int getRemainingTimeInMillis() { return 60_000; }
+
+        @Override
+        public int getMemoryLimitInMB() { return 512; }
+
+        @Override
+        public LambdaLogger getLogger() {
+            return new LambdaLogger() {
+                @Override
+                public void log(String message) {
+                }
+
+                @Override
+                public void log(byte[] message) {
+                }
+            };
+        }
+    }
+}
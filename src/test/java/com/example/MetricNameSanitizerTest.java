@@ -0,0 +1,82 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MetricNameSanitizerTest {
+
+    private static final String[] INPUTS = {
+            "",
+            "CPUUtilization",
+            "already_valid_123",
+            "Network-In.Bytes",
+            "a b/c:d",
+            "Latency (ms)",
+            "\u00e9t\u00e9",
+            "Gr\u00fc\u00dfe",
+            "\u8bf7\u6c42\u6570",
+            "emoji\ud83d\ude00name",
+            "\ud83d\ude00\ud83d\ude01",
+            "lone\ud83dhigh",
+            "lone\ude00low",
+            "reversed\ude00\ud83d",
+            "trailing\ud83d",
+            "tab\tnew\nline",
+    };
+
+    @Test
+    void matchesTheRegexReplacement() {
+        MetricNameSanitizer sanitizer = new MetricNameSanitizer();
+        for (String input : INPUTS) {
+            String expected = input.replaceAll("[^a-zA-Z0-9_]", "_");
+            assertEquals(expected, sanitizer.sanitize(input), input);
+            // Once more from the cache
+            assertEquals(expected, sanitizer.sanitize(input), input);
+        }
+    }
+
+    @Test
+    void matchesTheRegexReplacementWithoutCache() {
+        MetricNameSanitizer sanitizer = new MetricNameSanitizer(0);
+        for (String input : INPUTS) {
+            assertEquals(input.replaceAll("[^a-zA-Z0-9_]", "_"), sanitizer.sanitize(input), input);
+        }
+        assertEquals(0, sanitizer.cacheSize());
+    }
+
+    @Test
+    void returnsValidNamesAsIs() {
+        MetricNameSanitizer sanitizer = new MetricNameSanitizer();
+        String name = new String("Valid_Name_1");
+
+        assertSame(name, sanitizer.sanitize(name));
+        assertSame("", sanitizer.sanitize(""));
+        assertEquals(0, sanitizer.cacheSize());
+    }
+
+    @Test
+    void returnsTheCachedName() {
+        MetricNameSanitizer sanitizer = new MetricNameSanitizer();
+        String sanitized = sanitizer.sanitize("a.b");
+
+        assertSame(sanitized, sanitizer.sanitize(new String("a.b")));
+        assertEquals(1, sanitizer.cacheSize());
+    }
+
+    @Test
+    void staysWithinItsSize() {
+        MetricNameSanitizer sanitizer = new MetricNameSanitizer(4);
+        for (int i = 0; i < 100; i++) {
+            sanitizer.sanitize("name." + i);
+            assertTrue(sanitizer.cacheSize() <= 4, "size " + sanitizer.cacheSize());
+        }
+
+        // The names in use come back once it has been cleared
+        String sanitized = sanitizer.sanitize("name.99");
+        assertSame(sanitized, sanitizer.sanitize("name.99"));
+        assertEquals("name_7", sanitizer.sanitize("name.7"));
+    }
+}
@@ -0,0 +1,258 @@
+package com.example;
+
+import com.google.protobuf.CodedOutputStream;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OtlpMetricStreamDecoderTest {
+
+    // 2021-04-01T00:00:00Z
+    private static final long TIMESTAMP_MILLIS = 1_617_235_200_000L;
+
+    private final OtlpMetricStreamDecoder decoder = new OtlpMetricStreamDecoder();
+
+    @Test
+    void decodesASummaryDataPoint() throws IOException {
+        List<LambdaHandler.MetricStreamData> metrics = decode(ByteBuffer.wrap(payload()));
+
+        assertEquals(2, metrics.size());
+        LambdaHandler.MetricStreamData metric = metrics.get(0);
+        assertEquals("123456789012", metric.getAccountID());
+        assertEquals("eu-north-1", metric.getRegion());
+        assertEquals("AWS/DynamoDB", metric.getNamespace());
+        assertEquals("ConsumedReadCapacityUnits", metric.getMetricName());
+        assertEquals("{Count}", metric.getUnit());
+        assertEquals(TIMESTAMP_MILLIS, metric.getTimestamp());
+        // Sorted by name
+        assertEquals(2, metric.dimensionCount());
+        assertEquals("Operation", metric.dimensionName(0));
+        assertEquals("GetItem", metric.dimensionValue(0));
+        assertEquals("TableName", metric.dimensionName(1));
+        assertEquals("orders", metric.dimensionValue(1));
+
+        LambdaHandler.Value value = metric.getValue();
+        assertEquals(4, value.getCount());
+        assertEquals(10, value.getSum());
+        assertEquals(1, value.getMin());
+        assertEquals(5, value.getMax());
+        assertEquals(1, value.percentileCount());
+        assertEquals("p99", value.percentileName(0));
+        assertEquals(4.9, value.percentileValue(0));
+    }
+
+    @Test
+    void takesTheMetricNameFromTheMetricWithoutALabel() throws IOException {
+        LambdaHandler.MetricStreamData metric = decode(ByteBuffer.wrap(payload())).get(1);
+
+        assertEquals("Invocations", metric.getMetricName());
+        assertEquals("AWS/Lambda", metric.getNamespace());
+        assertEquals(0, metric.dimensionCount());
+        assertEquals(0, metric.getValue().percentileCount());
+        assertEquals(TIMESTAMP_MILLIS + 60_000, metric.getTimestamp());
+    }
+
+    @Test
+    void decodesEveryMessageOfTheRecord() throws IOException {
+        byte[] message = payload();
+        byte[] record = new byte[message.length * 3];
+        for (int i = 0; i < 3; i++) {
+            System.arraycopy(message, 0, record, i * message.length, message.length);
+        }
+
+        assertEquals(6, decode(ByteBuffer.wrap(record)).size());
+    }
+
+    @Test
+    void decodesFromTheBufferPosition() throws IOException {
+        byte[] message = payload();
+        ByteBuffer data = ByteBuffer.allocateDirect(message.length + 3);
+        data.position(3);
+        data.put(message);
+        data.position(3);
+
+        assertEquals(2, decode(data).size());
+        assertEquals(3, data.position());
+    }
+
+    @Test
+    void decodesAGzippedRecord() throws IOException {
+        List<LambdaHandler.MetricStreamData> metrics = decode(ByteBuffer.wrap(gzip(payload())));
+
+        assertEquals(2, metrics.size());
+        assertEquals("ConsumedReadCapacityUnits", metrics.get(0).getMetricName());
+        assertEquals(5, metrics.get(0).getValue().getMax());
+    }
+
+    @Test
+    void leavesTheAttributesOfAResourceWithoutThemUnset() throws IOException {
+        byte[] record = delimited(message(out ->
+                out.writeByteArray(1, message(resourceMetrics -> resourceMetrics.writeByteArray(2, libraryMetrics(
+                        metric("amazonaws.com/AWS/EC2/CPUUtilization", "%", dataPoint(null, TIMESTAMP_MILLIS))))))));
+
+        LambdaHandler.MetricStreamData metric = decode(ByteBuffer.wrap(record)).get(0);
+        assertNull(metric.getAccountID());
+        assertNull(metric.getRegion());
+        assertEquals("CPUUtilization", metric.getMetricName());
+    }
+
+    @Test
+    void rejectsATruncatedRecord() throws IOException {
+        byte[] message = payload();
+        ByteBuffer truncated = ByteBuffer.wrap(message, 0, message.length - 5);
+
+        assertThrows(IOException.class, () -> decode(truncated));
+    }
+
+    @Test
+    void isDetectedWhetherGzippedOrNot() throws IOException {
+        byte[] payload = payload();
+        byte[] json = ("{\"metric_stream_name\":\"s\",\"accountID\":\"123456789012\",\"region\":\"eu-north-1\","
+                + "\"namespace\":\"AWS/EC2\",\"metricName\":\"CPUUtilization\",\"dimensions\":{},"
+                + "\"timestamp\":1617235200000,\"value\":{\"max\":1,\"min\":1,\"sum\":1,\"count\":1},"
+                + "\"unit\":\"Percent\"}\n").getBytes(StandardCharsets.UTF_8);
+
+        assertTrue(FormatDetectingDecoder.isOtlp(ByteBuffer.wrap(payload), true));
+        assertFalse(FormatDetectingDecoder.isOtlp(ByteBuffer.wrap(json), true));
+
+        MetricStreamDecoder detecting = MetricStreamDecoder.create(MetricStreamDecoder.Format.AUTO, new StringPool());
+        for (byte[] record : new byte[][] {payload, gzip(payload)}) {
+            List<LambdaHandler.MetricStreamData> metrics = new ArrayList<>();
+            detecting.decode(ByteBuffer.wrap(record), metrics::add);
+            assertEquals(2, metrics.size());
+            assertEquals(4.9, metrics.get(0).getValue().percentileValue(0));
+        }
+        for (byte[] record : new byte[][] {json, gzip(json)}) {
+            List<LambdaHandler.MetricStreamData> metrics = new ArrayList<>();
+            detecting.decode(ByteBuffer.wrap(record), metrics::add);
+            assertEquals(1, metrics.size());
+            assertEquals("CPUUtilization", metrics.get(0).getMetricName());
+        }
+    }
+
+    private List<LambdaHandler.MetricStreamData> decode(ByteBuffer data) throws IOException {
+        List<LambdaHandler.MetricStreamData> metrics = new ArrayList<>();
+        decoder.decode(data, metrics::add);
+        return metrics;
+    }
+
+    // One length-delimited ExportMetricsServiceRequest as CloudWatch writes it
+    private static byte[] payload() throws IOException {
+        byte[] dynamoDb = dataPoint(out -> {
+            out.writeByteArray(1, keyValue("Namespace", "AWS/DynamoDB"));
+            out.writeByteArray(1, keyValue("MetricName", "ConsumedReadCapacityUnits"));
+            out.writeByteArray(1, keyValue("TableName", "orders"));
+            out.writeByteArray(1, keyValue("Operation", "GetItem"));
+            out.writeByteArray(6, quantile(0, 1));
+            out.writeByteArray(6, quantile(0.99, 4.9));
+            out.writeByteArray(6, quantile(1, 5));
+        }, TIMESTAMP_MILLIS);
+        byte[] lambda = dataPoint(out -> out.writeByteArray(1, keyValue("Namespace", "AWS/Lambda")),
+                TIMESTAMP_MILLIS + 60_000);
+
+        byte[] resource = message(out -> {
+            out.writeByteArray(1, attribute("cloud.provider", "aws"));
+            out.writeByteArray(1, attribute("cloud.account.id", "123456789012"));
+            out.writeByteArray(1, attribute("cloud.region", "eu-north-1"));
+        });
+        byte[] resourceMetrics = message(out -> {
+            out.writeByteArray(1, resource);
+            out.writeByteArray(2, libraryMetrics(
+                    metric("amazonaws.com/AWS/DynamoDB/ConsumedReadCapacityUnits", "{Count}", dynamoDb),
+                    metric("amazonaws.com/AWS/Lambda/Invocations", "{Count}", lambda)));
+        });
+        return delimited(message(out -> out.writeByteArray(1, resourceMetrics)));
+    }
+
+    private static byte[] libraryMetrics(byte[]... metrics) throws IOException {
+        return message(out -> {
+            out.writeByteArray(1, message(library -> library.writeString(1, "cloudwatch-metric-streams")));
+            for (byte[] metric : metrics) {
+                out.writeByteArray(2, metric);
+            }
+        });
+    }
+
+    private static byte[] metric(String name, String unit, byte[] dataPoint) throws IOException {
+        return message(out -> {
+            out.writeString(1, name);
+            out.writeString(2, "description, skipped");
+            out.writeString(3, unit);
+            out.writeByteArray(11, message(summary -> summary.writeByteArray(1, dataPoint)));
+        });
+    }
+
+    private static byte[] dataPoint(Fields fields, long timestampMillis) throws IOException {
+        return message(out -> {
+            if (fields != null) {
+                fields.write(out);
+            }
+            out.writeFixed64(2, (timestampMillis - 60_000) * 1_000_000);
+            out.writeFixed64(3, timestampMillis * 1_000_000);
+            out.writeFixed64(4, 4);
+            out.writeDouble(5, 10);
+        });
+    }
+
+    private static byte[] keyValue(String key, String value) throws IOException {
+        return message(out -> {
+            out.writeString(1, key);
+            out.writeString(2, value);
+        });
+    }
+
+    private static byte[] attribute(String key, String value) throws IOException {
+        return message(out -> {
+            out.writeString(1, key);
+            out.writeByteArray(2, message(anyValue -> anyValue.writeString(1, value)));
+        });
+    }
+
+    private static byte[] quantile(double quantile, double value) throws IOException {
+        return message(out -> {
+            out.writeDouble(1, quantile);
+            out.writeDouble(2, value);
+        });
+    }
+
+    private static byte[] delimited(byte[] message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+        out.writeUInt32NoTag(message.length);
+        out.writeRawBytes(message);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] message(Fields fields) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+        fields.write(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] gzip(byte[] payload) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(payload);
+        }
+        return bytes.toByteArray();
+    }
+
+    private interface Fields {
+        void write(CodedOutputStream out) throws IOException;
+    }
+}
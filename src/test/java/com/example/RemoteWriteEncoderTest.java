@@ -0,0 +1,340 @@
+package com.example;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.WireFormat;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.xerial.snappy.Snappy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RemoteWriteEncoderTest {
+
+    private static final long MINUTE = 60_000;
+
+    private final SeriesBuffer buffer = new SeriesBuffer();
+    private final List<RemoteWriteEncoder.Request> requests = new ArrayList<>();
+
+    @AfterEach
+    void release() {
+        requests.forEach(RemoteWriteEncoder.Request::release);
+    }
+
+    @Test
+    void writesTheWriteRequestMessage() throws IOException {
+        buffer.add("cpu", new String[] {"host", "h1", "Zone", "a"}, 2, 2 * MINUTE, 0.5, 0);
+        buffer.add("cpu", new String[] {"host", "h1", "Zone", "a"}, 2, MINUTE, -3, 1);
+        buffer.aggregate(0);
+
+        List<RemoteWriteEncoder.Request> encoded = encode(new RemoteWriteEncoder(), buffer);
+
+        assertEquals(1, encoded.size());
+        RemoteWriteEncoder.Request request = encoded.get(0);
+        assertEquals(2, request.getSampleCount());
+        assertEquals(records(0, 1), request.getRecords());
+        assertFalse(request.isContinuation());
+
+        List<TimeSeries> timeSeries = decode(request);
+        assertEquals(1, timeSeries.size());
+        // Sorted by name: upper case before "__name__", lower case after
+        assertEquals(Arrays.asList("Zone", "a", "__name__", "cpu", "host", "h1"), timeSeries.get(0).labels);
+        assertArrayEquals(new long[] {MINUTE, 2 * MINUTE}, timeSeries.get(0).timestamps());
+        assertArrayEquals(new double[] {-3, 0.5}, timeSeries.get(0).values());
+    }
+
+    @Test
+    void writesTheNameLastWhenEveryLabelSortsBeforeIt() throws IOException {
+        buffer.add("m", new String[] {"B", "2", "A", "1"}, 2, MINUTE, 1, 0);
+        buffer.add("n", new String[0], 0, MINUTE, 2, 1);
+
+        List<TimeSeries> timeSeries = decode(encode(new RemoteWriteEncoder(), buffer).get(0));
+
+        assertEquals(Arrays.asList("A", "1", "B", "2", "__name__", "m"), timeSeries.get(0).labels);
+        assertEquals(Arrays.asList("__name__", "n"), timeSeries.get(1).labels);
+    }
+
+    @Test
+    void compressesTheBodyAsASnappyBlock() throws IOException {
+        buffer.add("m", new String[0], 0, MINUTE, 1, 0);
+
+        RemoteWriteEncoder.Request request = encode(new RemoteWriteEncoder(), buffer).get(0);
+
+        // A raw block, as remote write expects, not the snappy framing format
+        byte[] body = body(request);
+        assertTrue(Snappy.isValidCompressedBuffer(body));
+        assertEquals(request.getBodySize(), body.length);
+        assertEquals(Snappy.uncompress(body).length, Snappy.uncompressedLength(body));
+    }
+
+    @Test
+    void splitsAtTheSampleLimit() throws IOException {
+        for (int series = 0; series < 3; series++) {
+            for (int i = 0; i < 3; i++) {
+                buffer.add("m", new String[] {"s", Integer.toString(series)}, 1, i * MINUTE, i, series * 3 + i);
+            }
+        }
+        buffer.aggregate(0);
+
+        List<RemoteWriteEncoder.Request> encoded = encode(new RemoteWriteEncoder(4), buffer);
+
+        assertEquals(3, encoded.size());
+        assertEquals(4, encoded.get(0).getSampleCount());
+        assertEquals(4, encoded.get(1).getSampleCount());
+        assertEquals(1, encoded.get(2).getSampleCount());
+        assertFalse(encoded.get(0).isContinuation());
+        assertTrue(encoded.get(1).isContinuation());
+        assertTrue(encoded.get(2).isContinuation());
+        assertEquals(records(0, 1, 2, 3), encoded.get(0).getRecords());
+        assertEquals(records(4, 5, 6, 7), encoded.get(1).getRecords());
+
+        // Series 1 spans the first two requests, in order
+        assertEquals(1, encoded.get(1).sampleFrom(0));
+        assertEquals(3, encoded.get(1).sampleTo(0));
+        assertArrayEquals(new long[] {0}, decode(encoded.get(0)).get(1).timestamps());
+        assertArrayEquals(new long[] {MINUTE, 2 * MINUTE}, decode(encoded.get(1)).get(0).timestamps());
+        assertEquals(9, sampleCount(encoded));
+    }
+
+    @Test
+    void takesTheLowerOfTheSampleLimits() throws IOException {
+        for (int i = 0; i < 10; i++) {
+            buffer.add("m", new String[0], 0, i * MINUTE, i, i);
+        }
+
+        assertEquals(5, encode(new RemoteWriteEncoder(4), buffer, 2).size());
+        assertEquals(3, encode(new RemoteWriteEncoder(4), buffer, 100).size());
+        // Zero still makes progress
+        assertEquals(10, encode(new RemoteWriteEncoder(4), buffer, 0).size());
+    }
+
+    @Test
+    void keepsBodiesWithinTheByteLimit() throws IOException {
+        addRandomSamples(20, 50);
+
+        List<RemoteWriteEncoder.Request> encoded = encode(new RemoteWriteEncoder(2000, 1024), buffer);
+
+        assertTrue(encoded.size() > 1);
+        for (RemoteWriteEncoder.Request request : encoded) {
+            assertTrue(request.getBodySize() <= 1024, "body of " + request.getBodySize() + " bytes");
+        }
+        assertAllSamplesInOrder(encoded, 20, 50);
+    }
+
+    @Test
+    void splitsBodiesThatCompressWorseThanExpected() throws IOException {
+        RemoteWriteEncoder encoder = new RemoteWriteEncoder(2000, 1024);
+        // Constant samples compress well, so the encoder expects the next ones to as well
+        for (int i = 0; i < 2000; i++) {
+            buffer.add("m", new String[0], 0, MINUTE, 1, 0);
+            buffer.add("m", new String[] {"i", Integer.toString(i)}, 1, MINUTE, 1, 0);
+        }
+        encode(encoder, buffer);
+        buffer.clear();
+
+        // ... and these do not: the bodies come out too large and are split in halves, down to
+        // the samples of a single series
+        addRandomSamples(1, 400);
+        List<RemoteWriteEncoder.Request> encoded = encode(encoder, buffer);
+
+        assertTrue(encoded.size() > 1);
+        for (int i = 0; i < encoded.size(); i++) {
+            assertTrue(encoded.get(i).getBodySize() <= 1024, "body of " + encoded.get(i).getBodySize() + " bytes");
+            assertEquals(i > 0, encoded.get(i).isContinuation());
+        }
+        assertAllSamplesInOrder(encoded, 1, 400);
+    }
+
+    @Test
+    void sendsASampleLargerThanTheByteLimitAlone() throws IOException {
+        buffer.add("m", new String[] {"long", "x".repeat(200)}, 1, MINUTE, 1, 0);
+        buffer.add("m", new String[] {"long", "x".repeat(200)}, 1, 2 * MINUTE, 2, 1);
+        buffer.aggregate(0);
+
+        List<RemoteWriteEncoder.Request> encoded = encode(new RemoteWriteEncoder(2000, 64), buffer);
+
+        assertEquals(2, encoded.size());
+        assertEquals(1, encoded.get(0).getSampleCount());
+        assertTrue(encoded.get(1).isContinuation());
+    }
+
+    @Test
+    void keepsTheRequestsOfASeriesInOneShard() throws IOException {
+        for (int i = 0; i < 10; i++) {
+            buffer.add("long", new String[0], 0, i * MINUTE, i, 0);
+        }
+        for (int series = 0; series < 4; series++) {
+            buffer.add("short", new String[] {"s", Integer.toString(series)}, 1, MINUTE, series, 1);
+        }
+        buffer.aggregate(0);
+        List<RemoteWriteEncoder.Request> encoded = encode(new RemoteWriteEncoder(2), buffer);
+        assertEquals(7, encoded.size());
+
+        // Three requests a shard would cut the long series after its third request
+        List<List<RemoteWriteEncoder.Request>> shards = RemoteWriteEncoder.shard(encoded, 3);
+
+        assertEquals(2, shards.size());
+        assertEquals(encoded.subList(0, 5), shards.get(0));
+        assertEquals(encoded.subList(5, 7), shards.get(1));
+        for (List<RemoteWriteEncoder.Request> shard : shards) {
+            assertFalse(shard.get(0).isContinuation());
+        }
+    }
+
+    @Test
+    void shardsRequestsEvenly() throws IOException {
+        for (int series = 0; series < 7; series++) {
+            buffer.add("m", new String[] {"s", Integer.toString(series)}, 1, MINUTE, series, series);
+        }
+        List<RemoteWriteEncoder.Request> encoded = encode(new RemoteWriteEncoder(1), buffer);
+
+        assertEquals(Arrays.asList(3, 3, 1), shardSizes(RemoteWriteEncoder.shard(encoded, 3)));
+        assertEquals(Arrays.asList(7), shardSizes(RemoteWriteEncoder.shard(encoded, 1)));
+        assertEquals(Arrays.asList(1, 1, 1, 1, 1, 1, 1), shardSizes(RemoteWriteEncoder.shard(encoded, 20)));
+        assertTrue(RemoteWriteEncoder.shard(new ArrayList<>(), 3).isEmpty());
+    }
+
+    private static List<Integer> shardSizes(List<List<RemoteWriteEncoder.Request>> shards) {
+        List<Integer> sizes = new ArrayList<>();
+        for (List<RemoteWriteEncoder.Request> shard : shards) {
+            sizes.add(shard.size());
+        }
+        return sizes;
+    }
+
+    private void addRandomSamples(int seriesCount, int samplesPerSeries) {
+        Random random = new Random(42);
+        for (int series = 0; series < seriesCount; series++) {
+            for (int i = 0; i < samplesPerSeries; i++) {
+                buffer.add("m", new String[] {"s", Integer.toString(series)}, 1,
+                        i * MINUTE + random.nextInt(1000), random.nextDouble(), series);
+            }
+        }
+        buffer.aggregate(0);
+    }
+
+    private void assertAllSamplesInOrder(List<RemoteWriteEncoder.Request> encoded, int seriesCount,
+            int samplesPerSeries) throws IOException {
+        List<List<Long>> timestamps = new ArrayList<>();
+        for (int series = 0; series < seriesCount; series++) {
+            timestamps.add(new ArrayList<>());
+        }
+        for (RemoteWriteEncoder.Request request : encoded) {
+            for (TimeSeries timeSeries : decode(request)) {
+                int series = Integer.parseInt(timeSeries.labels.get(timeSeries.labels.indexOf("s") + 1));
+                for (long timestamp : timeSeries.timestamps()) {
+                    timestamps.get(series).add(timestamp);
+                }
+            }
+        }
+        for (List<Long> series : timestamps) {
+            assertEquals(samplesPerSeries, series.size());
+            for (int i = 1; i < series.size(); i++) {
+                assertTrue(series.get(i - 1) < series.get(i));
+            }
+        }
+        assertEquals(seriesCount * samplesPerSeries, sampleCount(encoded));
+    }
+
+    private List<RemoteWriteEncoder.Request> encode(RemoteWriteEncoder encoder, SeriesBuffer series)
+            throws IOException {
+        return encode(encoder, series, Integer.MAX_VALUE);
+    }
+
+    private List<RemoteWriteEncoder.Request> encode(RemoteWriteEncoder encoder, SeriesBuffer series,
+            int samplesPerRequest) throws IOException {
+        List<RemoteWriteEncoder.Request> encoded = encoder.encode(series, samplesPerRequest);
+        requests.addAll(encoded);
+        return encoded;
+    }
+
+    private static int sampleCount(List<RemoteWriteEncoder.Request> encoded) {
+        int samples = 0;
+        for (RemoteWriteEncoder.Request request : encoded) {
+            samples += request.getSampleCount();
+        }
+        return samples;
+    }
+
+    private static byte[] body(RemoteWriteEncoder.Request request) {
+        ByteBuffer body = request.getBody();
+        byte[] bytes = new byte[body.remaining()];
+        body.get(bytes);
+        return bytes;
+    }
+
+    // Reads the WriteRequest back, checking the field numbers and wire types along the way
+    private static List<TimeSeries> decode(RemoteWriteEncoder.Request request) throws IOException {
+        CodedInputStream in = CodedInputStream.newInstance(Snappy.uncompress(body(request)));
+        List<TimeSeries> timeSeries = new ArrayList<>();
+        while (!in.isAtEnd()) {
+            assertEquals(tag(1, WireFormat.WIRETYPE_LENGTH_DELIMITED), in.readTag());
+            int limit = in.pushLimit(in.readRawVarint32());
+            timeSeries.add(readTimeSeries(in));
+            in.popLimit(limit);
+        }
+        return timeSeries;
+    }
+
+    private static TimeSeries readTimeSeries(CodedInputStream in) throws IOException {
+        TimeSeries timeSeries = new TimeSeries();
+        while (!in.isAtEnd()) {
+            int tag = in.readTag();
+            assertEquals(WireFormat.WIRETYPE_LENGTH_DELIMITED, WireFormat.getTagWireType(tag));
+            int limit = in.pushLimit(in.readRawVarint32());
+            if (WireFormat.getTagFieldNumber(tag) == 1) {
+                assertTrue(timeSeries.timestamps.isEmpty(), "labels come before samples");
+                assertEquals(tag(1, WireFormat.WIRETYPE_LENGTH_DELIMITED), in.readTag());
+                timeSeries.labels.add(in.readStringRequireUtf8());
+                assertEquals(tag(2, WireFormat.WIRETYPE_LENGTH_DELIMITED), in.readTag());
+                timeSeries.labels.add(in.readStringRequireUtf8());
+            } else {
+                assertEquals(2, WireFormat.getTagFieldNumber(tag));
+                assertEquals(tag(1, WireFormat.WIRETYPE_FIXED64), in.readTag());
+                timeSeries.values.add(in.readDouble());
+                assertEquals(tag(2, WireFormat.WIRETYPE_VARINT), in.readTag());
+                timeSeries.timestamps.add(in.readInt64());
+            }
+            assertTrue(in.isAtEnd());
+            in.popLimit(limit);
+        }
+        return timeSeries;
+    }
+
+    private static int tag(int fieldNumber, int wireType) {
+        return fieldNumber << 3 | wireType;
+    }
+
+    private static BitSet records(int... indexes) {
+        BitSet records = new BitSet();
+        for (int index : indexes) {
+            records.set(index);
+        }
+        return records;
+    }
+
+    private static final class TimeSeries {
+        // Names and values, in the order written
+        final List<String> labels = new ArrayList<>();
+        final List<Double> values = new ArrayList<>();
+        final List<Long> timestamps = new ArrayList<>();
+
+        long[] timestamps() {
+            return timestamps.stream().mapToLong(Long::longValue).toArray();
+        }
+
+        double[] values() {
+            return values.stream().mapToDouble(Double::doubleValue).toArray();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RemoteWriteSenderTest {
+
+    private static final long NOW = ZonedDateTime.of(2024, 3, 1, 12, 0, 0, 0, ZoneOffset.UTC).toInstant().toEpochMilli();
+
+    @Test
+    void readsRetryAfterInSeconds() {
+        assertEquals(30_000, RemoteWriteSender.retryAfterMillis("30", NOW));
+        assertEquals(5_000, RemoteWriteSender.retryAfterMillis(" 5 ", NOW));
+        assertEquals(0, RemoteWriteSender.retryAfterMillis("0", NOW));
+        assertEquals(0, RemoteWriteSender.retryAfterMillis("-3", NOW));
+    }
+
+    @Test
+    void readsRetryAfterAsAnHttpDate() {
+        assertEquals(90_000, RemoteWriteSender.retryAfterMillis("Fri, 01 Mar 2024 12:01:30 GMT", NOW));
+        assertEquals(90_000, RemoteWriteSender.retryAfterMillis(
+                DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.of(2024, 3, 1, 12, 1, 30, 0, ZoneOffset.UTC)),
+                NOW));
+        // A date already past means no wait
+        assertEquals(0, RemoteWriteSender.retryAfterMillis("Fri, 01 Mar 2024 11:59:00 GMT", NOW));
+    }
+
+    @Test
+    void ignoresAMissingOrInvalidRetryAfter() {
+        assertEquals(-1, RemoteWriteSender.retryAfterMillis(null, NOW));
+        assertEquals(-1, RemoteWriteSender.retryAfterMillis(" ", NOW));
+        assertEquals(-1, RemoteWriteSender.retryAfterMillis("soon", NOW));
+        assertEquals(-1, RemoteWriteSender.retryAfterMillis("2024-03-01T12:01:30Z", NOW));
+    }
+}
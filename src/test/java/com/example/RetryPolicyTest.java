@@ -0,0 +1,107 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RetryPolicyTest {
+
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    @Test
+    void drawsBackoffsBelowTheExponentialCeiling() {
+        RetryPolicy policy = new RetryPolicy(10, 100, 1000);
+        long[] ceilings = {100, 200, 400, 800, 1000, 1000};
+        for (int retry = 1; retry <= ceilings.length; retry++) {
+            long max = 0;
+            for (int i = 0; i < 2000; i++) {
+                long backoff = policy.backoffMillis(retry);
+                assertTrue(backoff >= 0 && backoff <= ceilings[retry - 1], "retry " + retry + ": " + backoff);
+                max = Math.max(max, backoff);
+            }
+            // Full jitter: the whole range is drawn from
+            assertTrue(max > ceilings[retry - 1] * 9 / 10, "retry " + retry + ": " + max);
+        }
+        assertTrue(policy.backoffMillis(100) <= 1000);
+    }
+
+    @Test
+    void retriesUntilTheAttemptSucceeds() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+
+        int retries = new RetryPolicy(4, 0, 0).run(retry -> {
+            assertEquals(attempts.getAndIncrement(), retry);
+            if (retry < 2) {
+                throw new RemoteWriteException(503, "unavailable");
+            }
+        }, NO_DEADLINE);
+
+        assertEquals(2, retries);
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    void givesUpOnceTheAttemptsRunOut() {
+        AtomicInteger attempts = new AtomicInteger();
+        IOException failure = new IOException("reset");
+
+        assertSame(failure, assertThrows(IOException.class, () -> new RetryPolicy(3, 0, 0).run(retry -> {
+            attempts.incrementAndGet();
+            throw failure;
+        }, NO_DEADLINE)));
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    void doesNotRetryRejections() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        RemoteWriteException e = assertThrows(RemoteWriteException.class, () -> new RetryPolicy(3, 0, 0).run(retry -> {
+            attempts.incrementAndGet();
+            throw new RemoteWriteException(400, "out of order sample");
+        }, NO_DEADLINE));
+        assertEquals(400, e.getStatusCode());
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    void stopsWhenTheNextWaitWouldPassTheDeadline() {
+        AtomicInteger attempts = new AtomicInteger();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(1000);
+        long start = System.nanoTime();
+
+        assertThrows(RemoteWriteException.class, () -> new RetryPolicy(10, 0, 0).run(retry -> {
+            attempts.incrementAndGet();
+            throw new RemoteWriteException(429, "throttled", 5000);
+        }, deadline));
+        assertEquals(1, attempts.get());
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1000));
+    }
+
+    @Test
+    void waitsAsLongAsRetryAfterAsks() throws Exception {
+        long start = System.nanoTime();
+
+        new RetryPolicy(2, 0, 0).run(retry -> {
+            if (retry == 0) {
+                throw new RemoteWriteException(429, "throttled", 200);
+            }
+        }, NO_DEADLINE);
+
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+    }
+
+    @Test
+    void takesRetryAfterOnlyFromRemoteWriteFailures() {
+        assertEquals(1500, RetryPolicy.retryAfterMillis(new RemoteWriteException(503, "unavailable", 1500)));
+        assertEquals(-1, RetryPolicy.retryAfterMillis(new RemoteWriteException(503, "unavailable")));
+        assertEquals(-1, RetryPolicy.retryAfterMillis(new IOException("reset")));
+    }
+}
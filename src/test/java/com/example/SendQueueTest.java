@@ -0,0 +1,184 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SendQueueTest {
+
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    @TempDir
+    Path directory;
+
+    private final InvocationMetrics metrics = new InvocationMetrics("Test");
+    // Stub sink keeping a copy of every body written to it
+    private final List<byte[]> overflow = new ArrayList<>();
+    private final OverflowSink sink = body -> overflow.add(bytes(body));
+
+    @Test
+    void isDisabledWithoutSpillOrSink() throws IOException {
+        SendQueue queue = new SendQueue(null, null, 1000);
+
+        assertFalse(queue.isEnabled());
+        assertFalse(queue.park(body(1), metrics));
+        assertFalse(queue.isBacklogged(System.currentTimeMillis()));
+    }
+
+    @Test
+    void spillsUntilFullThenOverflowsToTheSink() throws IOException {
+        // Room for two 100-byte bodies
+        SendQueue queue = new SendQueue(new SpillQueue(directory.resolve("segment"), 216), sink, 1000);
+
+        for (int i = 1; i <= 3; i++) {
+            assertTrue(queue.park(body(i), metrics));
+        }
+
+        assertEquals(2, metrics.get(InvocationMetrics.Counter.SPILLED_REQUESTS));
+        assertEquals(1, metrics.get(InvocationMetrics.Counter.OVERFLOW_REQUESTS));
+        assertEquals(1, overflow.size());
+        assertArrayEquals(bytes(3), overflow.get(0));
+        assertEquals(216, queue.spilledBytes());
+    }
+
+    @Test
+    void refusesWhatNeitherTheSpillNorTheSinkTakes() throws IOException {
+        SendQueue queue = new SendQueue(new SpillQueue(directory.resolve("segment"), 108), null, 1000);
+
+        assertTrue(queue.park(body(1), metrics));
+        assertFalse(queue.park(body(2), metrics));
+    }
+
+    @Test
+    void propagatesSinkFailures() {
+        SendQueue queue = new SendQueue(null, body -> {
+            throw new IOException("bucket unavailable");
+        }, 1000);
+
+        assertThrows(IOException.class, () -> queue.park(body(1), metrics));
+    }
+
+    @Test
+    void isBackloggedWhileRequestsAreSpilled() throws IOException {
+        SendQueue queue = new SendQueue(new SpillQueue(directory.resolve("segment"), 1000), sink, 1000);
+        long now = System.currentTimeMillis();
+        assertFalse(queue.isBacklogged(now));
+
+        queue.park(body(1), metrics);
+        assertTrue(queue.isBacklogged(now));
+
+        queue.flush(body -> { }, NO_DEADLINE, metrics);
+        assertFalse(queue.isBacklogged(now));
+    }
+
+    @Test
+    void isBackloggedDuringTheRetryAfterWindow() {
+        SendQueue queue = new SendQueue(null, sink, 1000);
+        long now = System.currentTimeMillis();
+
+        queue.throttle(new RemoteWriteException(429, "throttled", 5000), now);
+
+        assertTrue(queue.isBacklogged(now + 4999));
+        assertFalse(queue.isBacklogged(now + 5000));
+    }
+
+    @Test
+    void flushesOldestFirst() throws IOException {
+        SendQueue queue = new SendQueue(new SpillQueue(directory.resolve("segment"), 1000), sink, 1000);
+        for (int i = 1; i <= 3; i++) {
+            queue.park(body(i), metrics);
+        }
+
+        List<byte[]> sent = new ArrayList<>();
+        SendQueue.FlushResult result = queue.flush(body -> sent.add(bytes(body)), NO_DEADLINE, metrics);
+
+        assertEquals(3, result.getSent());
+        assertEquals(0, result.getRejected());
+        assertEquals(3, metrics.get(InvocationMetrics.Counter.FLUSHED_REQUESTS));
+        for (int i = 0; i < 3; i++) {
+            assertArrayEquals(bytes(i + 1), sent.get(i));
+        }
+        assertEquals(0, queue.spilledBytes());
+    }
+
+    @Test
+    void stopsFlushingWhenThrottledAndKeepsTheRequest() throws IOException {
+        SendQueue queue = new SendQueue(new SpillQueue(directory.resolve("segment"), 1000), sink, 1000);
+        for (int i = 1; i <= 3; i++) {
+            queue.park(body(i), metrics);
+        }
+
+        List<byte[]> sent = new ArrayList<>();
+        SendQueue.FlushResult result = queue.flush(body -> {
+            if (!sent.isEmpty()) {
+                throw new RemoteWriteException(429, "throttled", 60_000);
+            }
+            sent.add(bytes(body));
+        }, NO_DEADLINE, metrics);
+
+        assertEquals(1, result.getSent());
+        assertEquals(216, queue.spilledBytes());
+        assertTrue(queue.isBacklogged(System.currentTimeMillis()));
+        // Nothing more goes out while the window is open
+        assertEquals(0, queue.flush(body -> sent.add(bytes(body)), NO_DEADLINE, metrics).getSent());
+    }
+
+    @Test
+    void dropsRequestsRejectedForGood() throws IOException {
+        SendQueue queue = new SendQueue(new SpillQueue(directory.resolve("segment"), 1000), sink, 1000);
+        queue.park(body(1), metrics);
+        queue.park(body(2), metrics);
+
+        List<byte[]> sent = new ArrayList<>();
+        SendQueue.FlushResult result = queue.flush(body -> {
+            if (body.get(0) == 1) {
+                throw new RemoteWriteException(400, "out of order sample");
+            }
+            sent.add(bytes(body));
+        }, NO_DEADLINE, metrics);
+
+        assertEquals(1, result.getSent());
+        assertEquals(1, result.getRejected());
+        assertArrayEquals(bytes(2), sent.get(0));
+        assertEquals(0, queue.spilledBytes());
+    }
+
+    @Test
+    void sendsNothingPastTheDeadline() throws IOException {
+        SendQueue queue = new SendQueue(new SpillQueue(directory.resolve("segment"), 1000), sink, 1000);
+        queue.park(body(1), metrics);
+
+        SendQueue.FlushResult result = queue.flush(body -> { }, System.nanoTime() - 1, metrics);
+
+        assertEquals(0, result.getSent());
+        assertEquals(108, queue.spilledBytes());
+    }
+
+    private static ByteBuffer body(int id) {
+        return ByteBuffer.wrap(bytes(id));
+    }
+
+    private static byte[] bytes(int id) {
+        byte[] body = new byte[100];
+        Arrays.fill(body, (byte) id);
+        return body;
+    }
+
+    private static byte[] bytes(ByteBuffer body) {
+        byte[] copy = new byte[body.remaining()];
+        body.duplicate().get(copy);
+        return copy;
+    }
+}
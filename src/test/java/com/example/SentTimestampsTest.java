@@ -0,0 +1,118 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SentTimestampsTest {
+
+    private static final long MINUTE = 60_000;
+
+    @Test
+    void remembersTheSamplesSent() {
+        SentTimestamps sent = new SentTimestamps(16);
+        sent.update(11, 2 * MINUTE);
+        sent.update(11, 3 * MINUTE);
+
+        assertTrue(sent.isSent(11, 2 * MINUTE));
+        assertTrue(sent.isSent(11, 3 * MINUTE));
+        assertFalse(sent.isSent(13, 3 * MINUTE));
+        assertEquals(3 * MINUTE, sent.get(11));
+        assertEquals(SentTimestamps.NONE, sent.get(13));
+    }
+
+    @Test
+    void doesNotTakeAnOlderSampleForSent() {
+        SentTimestamps sent = new SentTimestamps(16);
+        sent.update(11, 3 * MINUTE);
+
+        // Arrives late, after a newer sample of its series went out
+        assertFalse(sent.isSent(11, MINUTE));
+        assertFalse(sent.isSent(11, 3 * MINUTE - 1));
+
+        sent.update(11, MINUTE);
+        assertTrue(sent.isSent(11, MINUTE));
+        assertEquals(3 * MINUTE, sent.get(11));
+    }
+
+    @Test
+    void forgetsTheTimestampsRecordedFirst() {
+        SentTimestamps sent = new SentTimestamps(16);
+        for (int i = 0; i < SentTimestamps.TIMESTAMPS_PER_SERIES + 2; i++) {
+            sent.update(11, i * MINUTE);
+        }
+
+        assertFalse(sent.isSent(11, 0));
+        assertFalse(sent.isSent(11, MINUTE));
+        for (int i = 2; i < SentTimestamps.TIMESTAMPS_PER_SERIES + 2; i++) {
+            assertTrue(sent.isSent(11, i * MINUTE));
+        }
+    }
+
+    @Test
+    void recordsATimestampOnce() {
+        SentTimestamps sent = new SentTimestamps(16);
+        sent.update(11, 0);
+        for (int i = 0; i < SentTimestamps.TIMESTAMPS_PER_SERIES * 2; i++) {
+            sent.update(11, MINUTE);
+        }
+
+        assertTrue(sent.isSent(11, 0));
+    }
+
+    @Test
+    void evictsTheSeriesSentLeastRecently() {
+        // One bucket of four series
+        SentTimestamps sent = new SentTimestamps(4);
+        for (int series = 1; series <= 4; series++) {
+            sent.update(series, series * MINUTE);
+        }
+
+        sent.update(5, 10 * MINUTE);
+
+        assertFalse(sent.isSent(1, MINUTE));
+        for (int series = 2; series <= 5; series++) {
+            assertTrue(sent.get(series) > SentTimestamps.NONE, "series " + series);
+        }
+    }
+
+    @Test
+    void recordsTheSamplesOfASeries() {
+        SeriesBuffer buffer = new SeriesBuffer();
+        for (int i = 1; i <= 4; i++) {
+            buffer.add("m", new String[] {"host", "h1"}, 1, i * MINUTE, i, 0);
+        }
+        SeriesBuffer.Series series = buffer.get(0);
+        SentTimestamps sent = new SentTimestamps(16);
+
+        sent.update(series, 1, 3);
+
+        assertFalse(sent.isSent(series, MINUTE));
+        assertTrue(sent.isSent(series, 2 * MINUTE));
+        assertTrue(sent.isSent(series, 3 * MINUTE));
+        assertFalse(sent.isSent(series, 4 * MINUTE));
+    }
+
+    @Test
+    void isEmptyOnceCleared() {
+        SentTimestamps sent = new SentTimestamps(16);
+        sent.update(11, MINUTE);
+
+        sent.clear();
+
+        assertFalse(sent.isSent(11, MINUTE));
+        assertEquals(SentTimestamps.NONE, sent.get(11));
+    }
+
+    @Test
+    void remembersNothingWhenDisabled() {
+        SentTimestamps sent = new SentTimestamps(0);
+        sent.update(11, MINUTE);
+
+        assertFalse(sent.isEnabled());
+        assertFalse(sent.isSent(11, MINUTE));
+        assertEquals(SentTimestamps.NONE, sent.get(11));
+    }
+}
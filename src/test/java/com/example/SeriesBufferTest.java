@@ -0,0 +1,268 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class SeriesBufferTest {
+
+    private static final long MINUTE = 60_000;
+
+    private final SeriesBuffer buffer = new SeriesBuffer();
+
+    @Test
+    void groupsSamplesBySortedLabelSet() {
+        buffer.add("cpu", new String[] {"zone", "a", "host", "h1"}, 2, 1000, 1, 0);
+        buffer.add("cpu", new String[] {"host", "h1", "zone", "a"}, 2, 2000, 2, 1);
+        buffer.add("cpu", new String[] {"host", "h2", "zone", "a"}, 2, 1000, 3, 2);
+        // Pairs past the label count are ignored
+        buffer.add("cpu", new String[] {"host", "h2", "zone", "a", "extra", "x"}, 2, 2000, 4, 3);
+
+        assertEquals(2, buffer.seriesCount());
+        assertEquals(4, buffer.sampleCount());
+        SeriesBuffer.Series series = buffer.get(0);
+        assertEquals("cpu", series.getName());
+        assertEquals(2, series.labelCount());
+        assertEquals("host", series.labelName(0));
+        assertEquals("h1", series.labelValue(0));
+        assertEquals("zone", series.labelName(1));
+        assertEquals(2, series.size());
+        assertEquals(2, buffer.get(1).size());
+    }
+
+    @Test
+    void sortsSamplesAndKeepsTheLastOfATimestamp() {
+        add(3 * MINUTE, 3, 0);
+        add(MINUTE, 1, 1);
+        add(3 * MINUTE, 30, 2);
+        add(2 * MINUTE, 2, 3);
+
+        assertEquals(1, buffer.aggregate(0));
+        assertEquals(3, buffer.sampleCount());
+
+        SeriesBuffer.Series series = buffer.get(0);
+        assertSamples(series, new long[] {MINUTE, 2 * MINUTE, 3 * MINUTE}, new double[] {1, 2, 30});
+        // The record of the duplicate stays attached to the sample that replaced it
+        assertEquals(records(0, 2), sources(series, 2, 3));
+        assertEquals(records(1, 3), sources(series, 0, 2));
+    }
+
+    @Test
+    void sortsSamplesReceivedInReverse() {
+        // Each timestamp twice, the second sample received wins
+        for (int i = 99; i >= 0; i--) {
+            add(i * MINUTE, i, i);
+            add(i * MINUTE, -i, 100 + i);
+        }
+
+        assertEquals(100, buffer.aggregate(0));
+
+        SeriesBuffer.Series series = buffer.get(0);
+        assertEquals(100, series.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i * MINUTE, series.timestamp(i));
+            assertEquals(-i, series.value(i));
+            assertEquals(records(i, 100 + i), sources(series, i, i + 1));
+        }
+    }
+
+    @Test
+    void doesNotRecordTheSameSourceTwice() {
+        add(MINUTE, 1, 5);
+        add(MINUTE, 2, 5);
+
+        buffer.aggregate(0);
+
+        assertEquals(records(5), sources(buffer.get(0), 0, 1));
+        assertEquals(2, buffer.get(0).value(0));
+    }
+
+    @Test
+    void downsamplesWithTheSeriesAggregation() {
+        for (SeriesBuffer.Aggregation aggregation : SeriesBuffer.Aggregation.values()) {
+            buffer.clear();
+            String[] labels = {"aggregation", aggregation.name()};
+            buffer.add("m", labels, 1, aggregation, 5 * MINUTE + 1000, 4, 0);
+            buffer.add("m", labels, 1, aggregation, 5 * MINUTE + 2000, 1, 1);
+            buffer.add("m", labels, 1, aggregation, 5 * MINUTE + 3000, 7, 2);
+            buffer.add("m", labels, 1, aggregation, 10 * MINUTE, 9, 3);
+
+            assertEquals(2, buffer.aggregate(5 * MINUTE), aggregation.name());
+
+            SeriesBuffer.Series series = buffer.get(0);
+            assertEquals(2, series.size(), aggregation.name());
+            assertEquals(5 * MINUTE, series.timestamp(0), aggregation.name());
+            assertEquals(10 * MINUTE, series.timestamp(1), aggregation.name());
+            assertEquals(9, series.value(1), aggregation.name());
+            assertEquals(records(0, 1, 2), sources(series, 0, 1), aggregation.name());
+            assertEquals(records(3), sources(series, 1, 2), aggregation.name());
+        }
+    }
+
+    @Test
+    void combinesTheWindowsWithEachAggregation() {
+        assertEquals(12, downsampled(SeriesBuffer.Aggregation.SUM));
+        assertEquals(7, downsampled(SeriesBuffer.Aggregation.MAX));
+        assertEquals(1, downsampled(SeriesBuffer.Aggregation.MIN));
+        assertEquals(7, downsampled(SeriesBuffer.Aggregation.LAST));
+    }
+
+    @Test
+    void downsamplesAfterDroppingDuplicates() {
+        buffer.add("m", new String[0], 0, SeriesBuffer.Aggregation.SUM, MINUTE, 1, 0);
+        buffer.add("m", new String[0], 0, SeriesBuffer.Aggregation.SUM, 2 * MINUTE, 2, 1);
+        // Redelivered: replaces the first sample rather than being summed with it
+        buffer.add("m", new String[0], 0, SeriesBuffer.Aggregation.SUM, MINUTE, 1, 2);
+
+        assertEquals(2, buffer.aggregate(5 * MINUTE));
+
+        SeriesBuffer.Series series = buffer.get(0);
+        assertSamples(series, new long[] {0}, new double[] {3});
+        assertEquals(records(0, 1, 2), sources(series, 0, 1));
+    }
+
+    @Test
+    void appendsAnotherBuffer() {
+        SeriesBuffer other = new SeriesBuffer();
+        other.add("m", new String[] {"a", "1"}, 1, SeriesBuffer.Aggregation.MAX, MINUTE, 1, 7);
+        other.add("n", new String[0], 0, 2 * MINUTE, 2, 8);
+        buffer.add("m", new String[] {"a", "1"}, 1, MINUTE, 5, 6);
+
+        buffer.addAll(other);
+
+        assertEquals(2, buffer.seriesCount());
+        assertEquals(3, buffer.sampleCount());
+        assertEquals(2, buffer.get(0).size());
+        assertEquals("n", buffer.get(1).getName());
+        assertEquals(8, buffer.get(1).source(0));
+    }
+
+    @Test
+    void startsOverOnceCleared() {
+        for (int i = 0; i < 10_000; i++) {
+            buffer.add("m", new String[] {"i", Integer.toString(i)}, 1, MINUTE, i, i);
+        }
+        assertEquals(10_000, buffer.seriesCount());
+        assertEquals("9999", buffer.get(9999).labelValue(0));
+
+        buffer.clear();
+        add(MINUTE, 1, 0);
+
+        assertEquals(1, buffer.seriesCount());
+        assertEquals(1, buffer.sampleCount());
+        assertSame(buffer.get(0), buffer.get(0));
+    }
+
+    @Test
+    void removesTheSamplesAlreadySent() {
+        add(MINUTE, 1, 0);
+        add(2 * MINUTE, 2, 1);
+        add(2 * MINUTE, 20, 2);
+        add(3 * MINUTE, 3, 3);
+        add(3 * MINUTE, 30, 4);
+        buffer.aggregate(0);
+        SentTimestamps sent = new SentTimestamps(16);
+        sent.update(buffer.get(0), 0, 2);
+
+        assertEquals(2, buffer.removeSentSamples(sent::isSent));
+
+        SeriesBuffer.Series series = buffer.get(0);
+        assertEquals(1, buffer.sampleCount());
+        assertSamples(series, new long[] {3 * MINUTE}, new double[] {30});
+        assertEquals(records(3, 4), sources(series, 0, 1));
+        assertEquals(0, buffer.removeSentSamples(sent::isSent));
+    }
+
+    @Test
+    void keepsAnOlderSampleThatWasNotSent() {
+        SentTimestamps sent = new SentTimestamps(16);
+        add(3 * MINUTE, 3, 0);
+        buffer.aggregate(0);
+        sent.update(buffer.get(0), 0, 1);
+        buffer.clear();
+
+        // Redelivered with a sample that arrived late, older than the one sent
+        add(MINUTE, 1, 0);
+        add(MINUTE, 10, 1);
+        add(3 * MINUTE, 3, 2);
+        add(4 * MINUTE, 4, 3);
+        buffer.aggregate(0);
+
+        assertEquals(1, buffer.removeSentSamples(sent::isSent));
+        assertEquals(1, buffer.countSamplesBefore(s -> sent.get(s.fingerprint())));
+
+        SeriesBuffer.Series series = buffer.get(0);
+        assertSamples(series, new long[] {MINUTE, 4 * MINUTE}, new double[] {10, 4});
+        assertEquals(records(0, 1), sources(series, 0, 1));
+        assertEquals(records(3), sources(series, 1, 2));
+    }
+
+    @Test
+    void countsNothingBeforeSeriesNeverSent() {
+        add(MINUTE, 1, 0);
+        add(2 * MINUTE, 2, 1);
+        buffer.aggregate(0);
+
+        assertEquals(0, buffer.countSamplesBefore(s -> SentTimestamps.NONE));
+        assertEquals(1, buffer.countSamplesBefore(s -> 2 * MINUTE));
+    }
+
+    @Test
+    void fingerprintsDependOnlyOnNameAndLabels() {
+        buffer.add("m", new String[] {"b", "2", "a", "1"}, 2, MINUTE, 1, 0);
+        buffer.add("m", new String[] {"a", "1", "b", "3"}, 2, MINUTE, 1, 0);
+        buffer.add("m", new String[] {"a", "12"}, 1, MINUTE, 1, 0);
+        buffer.add("m", new String[] {"a1", "2"}, 1, MINUTE, 1, 0);
+        SeriesBuffer other = new SeriesBuffer();
+        other.add("m", new String[] {"a", "1", "b", "2"}, 2, 5 * MINUTE, 9, 3);
+
+        assertEquals(buffer.get(0).fingerprint(), other.get(0).fingerprint());
+        assertNotEquals(buffer.get(0).fingerprint(), buffer.get(1).fingerprint());
+        // Label boundaries are part of the hash
+        assertNotEquals(buffer.get(2).fingerprint(), buffer.get(3).fingerprint());
+    }
+
+    private double downsampled(SeriesBuffer.Aggregation aggregation) {
+        buffer.clear();
+        buffer.add("m", new String[0], 0, aggregation, MINUTE, 4, 0);
+        buffer.add("m", new String[0], 0, aggregation, 2 * MINUTE, 1, 1);
+        buffer.add("m", new String[0], 0, aggregation, 3 * MINUTE, 7, 2);
+        buffer.aggregate(5 * MINUTE);
+        assertEquals(1, buffer.get(0).size());
+        return buffer.get(0).value(0);
+    }
+
+    private void add(long timestamp, double value, int source) {
+        buffer.add("m", new String[] {"host", "h1"}, 1, timestamp, value, source);
+    }
+
+    private static void assertSamples(SeriesBuffer.Series series, long[] timestamps, double[] values) {
+        long[] actualTimestamps = new long[series.size()];
+        double[] actualValues = new double[series.size()];
+        for (int i = 0; i < series.size(); i++) {
+            actualTimestamps[i] = series.timestamp(i);
+            actualValues[i] = series.value(i);
+        }
+        assertArrayEquals(timestamps, actualTimestamps);
+        assertArrayEquals(values, actualValues);
+    }
+
+    private static BitSet sources(SeriesBuffer.Series series, int from, int to) {
+        BitSet records = new BitSet();
+        series.sources(from, to, records);
+        return records;
+    }
+
+    private static BitSet records(int... indexes) {
+        BitSet records = new BitSet();
+        for (int index : indexes) {
+            records.set(index);
+        }
+        return records;
+    }
+}
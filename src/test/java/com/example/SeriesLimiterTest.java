@@ -0,0 +1,108 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SeriesLimiterTest {
+
+    private static final int LIMIT = 1000;
+
+    private final SeriesLimiter limiter = new SeriesLimiter(LIMIT);
+
+    @Test
+    void admitsEverySeriesBelowTheLimit() {
+        for (int series = 0; series < LIMIT * 9 / 10; series++) {
+            assertTrue(limiter.admit("AWS/EC2", "CPUUtilization", hash(series)), "series " + series);
+        }
+    }
+
+    @Test
+    void rejectsNewSeriesPastTheLimit() {
+        int admitted = offer("CPUUtilization", 0, 10 * LIMIT).cardinality();
+
+        // The ones below the limit, then limit / estimate of the following ones: about
+        // limit * (1 + ln 10) in all
+        assertTrue(Math.abs(admitted - LIMIT * 3.3) < LIMIT * 0.3, admitted + " admitted");
+
+        // limit * ln 2 while the estimate doubles
+        int admittedLater = offer("CPUUtilization", 10 * LIMIT, 20 * LIMIT).cardinality();
+        assertTrue(Math.abs(admittedLater - LIMIT * 0.69) < LIMIT * 0.1, admittedLater + " admitted");
+    }
+
+    @Test
+    void keepsAdmittingTheSameSeries() {
+        offer("CPUUtilization", 0, 10 * LIMIT);
+
+        BitSet admitted = offer("CPUUtilization", 0, 10 * LIMIT);
+        int count = admitted.cardinality();
+        assertTrue(Math.abs(count - LIMIT) < LIMIT * 15 / 100, count + " admitted");
+
+        // Series already counted do not move the estimate: the same ones get in
+        assertEquals(admitted, offer("CPUUtilization", 0, 10 * LIMIT));
+    }
+
+    @Test
+    void countsEachMetricSeparately() {
+        offer("CPUUtilization", 0, 10 * LIMIT);
+
+        for (int series = 0; series < LIMIT * 9 / 10; series++) {
+            assertTrue(limiter.admit("AWS/EC2", "NetworkIn", hash(series)), "series " + series);
+            assertTrue(limiter.admit("AWS/RDS", "CPUUtilization", hash(series)), "series " + series);
+            assertTrue(limiter.admit(null, "CPUUtilization", hash(series)), "series " + series);
+        }
+    }
+
+    @Test
+    void startsFromThePreviousEstimateAfterAReset() {
+        limiter.resetIfDue(0);
+        offer("CPUUtilization", 0, 10 * LIMIT);
+        BitSet admitted = offer("CPUUtilization", 0, 10 * LIMIT);
+
+        limiter.resetIfDue(SeriesLimiter.RESET_INTERVAL_MILLIS);
+
+        // The new sketch is empty, but the metric stays over its limit
+        assertEquals(admitted, offer("CPUUtilization", 0, 10 * LIMIT));
+
+        // After an idle interval it starts from scratch
+        limiter.resetIfDue(3 * SeriesLimiter.RESET_INTERVAL_MILLIS);
+        assertEquals(LIMIT * 9 / 10, offer("CPUUtilization", 0, LIMIT * 9 / 10).cardinality());
+    }
+
+    @Test
+    void admitsEverythingWithoutALimit() {
+        SeriesLimiter unlimited = new SeriesLimiter(0);
+
+        assertFalse(unlimited.isEnabled());
+        for (int series = 0; series < 10 * LIMIT; series++) {
+            assertTrue(unlimited.admit("AWS/EC2", "CPUUtilization", hash(series)));
+        }
+    }
+
+    @Test
+    void hashesLabelsIndependentlyOfTheirOrder() {
+        long hash = SeriesLimiter.seriesHash(new String[] {"a", "1", "b", "2"}, 2);
+
+        assertEquals(hash, SeriesLimiter.seriesHash(new String[] {"b", "2", "a", "1", "c", "3"}, 2));
+        assertTrue(hash != SeriesLimiter.seriesHash(new String[] {"a", "2", "b", "1"}, 2));
+        assertTrue(hash != SeriesLimiter.seriesHash(new String[] {"a", "1"}, 1));
+    }
+
+    private BitSet offer(String metricName, int from, int to) {
+        BitSet admitted = new BitSet();
+        for (int series = from; series < to; series++) {
+            if (limiter.admit("AWS/EC2", metricName, hash(series))) {
+                admitted.set(series);
+            }
+        }
+        return admitted;
+    }
+
+    private static long hash(int series) {
+        return SeriesLimiter.seriesHash(new String[] {"InstanceId", "i-" + series}, 1);
+    }
+}
@@ -0,0 +1,105 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ShardSizerTest {
+
+    private static final long FAST = 10_000_000;
+    private static final long SLOW = 2_000_000_000;
+
+    private final ShardSizer sizer = new ShardSizer(2000, 8, 500);
+
+    @Test
+    void startsAtTheLimits() {
+        assertEquals(2000, sizer.samplesPerRequest());
+        assertEquals(8, sizer.shards());
+    }
+
+    @Test
+    void shrinksRequestsByAQuarterWhenSlow() {
+        sizer.onSuccess(SLOW);
+        assertEquals(1500, sizer.samplesPerRequest());
+        sizer.onSuccess(SLOW);
+        assertEquals(1125, sizer.samplesPerRequest());
+        assertEquals(8, sizer.shards());
+    }
+
+    @Test
+    void growsRequestsByATenthOfTheLimitWhenFast() {
+        sizer.onSuccess(SLOW);
+        sizer.onSuccess(SLOW);
+
+        sizer.onSuccess(FAST);
+        assertEquals(1325, sizer.samplesPerRequest());
+        sizer.onSuccess(FAST);
+        assertEquals(1525, sizer.samplesPerRequest());
+        for (int i = 0; i < 10; i++) {
+            sizer.onSuccess(FAST);
+        }
+        assertEquals(2000, sizer.samplesPerRequest());
+    }
+
+    @Test
+    void neverShrinksRequestsBelowTheMinimum() {
+        for (int i = 0; i < 50; i++) {
+            sizer.onSuccess(SLOW);
+        }
+        assertEquals(100, sizer.samplesPerRequest());
+
+        // A limit below the minimum is the minimum
+        ShardSizer small = new ShardSizer(50, 1, 500);
+        small.onSuccess(SLOW);
+        assertEquals(50, small.samplesPerRequest());
+    }
+
+    @Test
+    void halvesShardsWhenThrottledAndAddsThemBackOneByOne() {
+        sizer.onFailure(new RemoteWriteException(429, "throttled"), 2000);
+        assertEquals(4, sizer.shards());
+        sizer.onFailure(new RemoteWriteException(503, "unavailable"), 2000);
+        assertEquals(2, sizer.shards());
+        sizer.onFailure(new ConnectException("refused"), 2000);
+        assertEquals(1, sizer.shards());
+        sizer.onFailure(new IOException("reset"), 2000);
+        assertEquals(1, sizer.shards());
+
+        sizer.onSuccess(FAST);
+        assertEquals(2, sizer.shards());
+        for (int i = 0; i < 10; i++) {
+            sizer.onSuccess(FAST);
+        }
+        assertEquals(8, sizer.shards());
+    }
+
+    @Test
+    void leavesShardsAloneOnRejections() {
+        sizer.onFailure(new RemoteWriteException(400, "bad request"), 2000);
+
+        assertEquals(8, sizer.shards());
+        assertEquals(2000, sizer.samplesPerRequest());
+    }
+
+    @Test
+    void capsRequestsBelowHalfOfOneTooLarge() {
+        sizer.onFailure(new RemoteWriteException(413, "too large"), 1600);
+        assertEquals(800, sizer.samplesPerRequest());
+        assertEquals(8, sizer.shards());
+
+        // Fast answers no longer grow the requests past the new limit
+        for (int i = 0; i < 10; i++) {
+            sizer.onSuccess(FAST);
+        }
+        assertEquals(800, sizer.samplesPerRequest());
+
+        // ... which never goes up again, nor below the minimum
+        sizer.onFailure(new RemoteWriteException(413, "too large"), 1999);
+        assertEquals(800, sizer.samplesPerRequest());
+        sizer.onFailure(new RemoteWriteException(413, "too large"), 10);
+        assertEquals(100, sizer.samplesPerRequest());
+    }
+}
@@ -0,0 +1,197 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpillQueueTest {
+
+    // Room for nine 100-byte bodies and their 8-byte entry headers
+    private static final int CAPACITY = 1000;
+    private static final int BODY_BYTES = 100;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void returnsBodiesOldestFirst() throws IOException {
+        SpillQueue queue = new SpillQueue(directory.resolve("segment"), CAPACITY);
+        assertTrue(queue.offer(body(1)));
+        assertTrue(queue.offer(body(2)));
+
+        assertEquals(2, queue.size());
+        assertEquals(2 * (BODY_BYTES + 8), queue.bytes());
+        assertArrayEquals(bytes(1), queue.peek());
+        queue.remove();
+        assertArrayEquals(bytes(2), queue.peek());
+        queue.remove();
+        assertTrue(queue.isEmpty());
+        assertNull(queue.peek());
+        assertEquals(0, queue.bytes());
+    }
+
+    @Test
+    void leavesTheOfferedBufferUntouched() throws IOException {
+        SpillQueue queue = new SpillQueue(directory.resolve("segment"), CAPACITY);
+        ByteBuffer body = body(1);
+        body.position(10);
+
+        assertTrue(queue.offer(body));
+
+        assertEquals(10, body.position());
+        assertArrayEquals(Arrays.copyOfRange(bytes(1), 10, BODY_BYTES), queue.peek());
+    }
+
+    @Test
+    void refusesBodiesPastItsCapacity() throws IOException {
+        SpillQueue queue = new SpillQueue(directory.resolve("segment"), CAPACITY);
+        for (int i = 0; i < 9; i++) {
+            assertTrue(queue.offer(body(i)));
+        }
+
+        assertFalse(queue.offer(body(9)));
+        assertEquals(9, queue.size());
+    }
+
+    @Test
+    void reopensTheEntriesOfAPreviousProcess() throws IOException {
+        Path file = directory.resolve("segment");
+        SpillQueue queue = new SpillQueue(file, CAPACITY);
+        for (int i = 0; i < 3; i++) {
+            queue.offer(body(i));
+        }
+        queue.remove();
+
+        SpillQueue reopened = new SpillQueue(file, CAPACITY);
+        assertArrayEquals(bytes(1), reopened.peek());
+        assertEquals(2, reopened.size());
+        reopened.remove();
+        assertArrayEquals(bytes(2), reopened.peek());
+    }
+
+    @Test
+    void recoversTheEntriesBeforeACorruptOne() throws IOException {
+        Path file = directory.resolve("segment");
+        SpillQueue queue = new SpillQueue(file, CAPACITY);
+        for (int i = 0; i < 3; i++) {
+            queue.offer(body(i));
+        }
+
+        byte[] segment = Files.readAllBytes(file);
+        segment[indexOf(segment, bytes(1)) + 50] ^= 0x7f;
+        Files.write(file, segment);
+
+        SpillQueue reopened = new SpillQueue(file, CAPACITY);
+        assertArrayEquals(bytes(0), reopened.peek());
+        assertEquals(1, reopened.size());
+        // Appends after the last valid entry
+        assertTrue(reopened.offer(body(3)));
+        reopened.remove();
+        assertArrayEquals(bytes(3), reopened.peek());
+    }
+
+    @Test
+    void recoversTheEntriesBeforeATruncatedOne() throws IOException {
+        Path file = directory.resolve("segment");
+        SpillQueue queue = new SpillQueue(file, CAPACITY);
+        queue.offer(body(0));
+        queue.offer(body(1));
+
+        // The length of the last entry now runs past the tail
+        byte[] segment = Files.readAllBytes(file);
+        ByteBuffer.wrap(segment).putInt(indexOf(segment, bytes(1)) - 8, BODY_BYTES + 1);
+        Files.write(file, segment);
+
+        SpillQueue reopened = new SpillQueue(file, CAPACITY);
+        assertArrayEquals(bytes(0), reopened.peek());
+        assertEquals(1, reopened.size());
+    }
+
+    @Test
+    void startsEmptyFromAnUnknownFile() throws IOException {
+        Path file = directory.resolve("segment");
+        Files.write(file, new byte[64]);
+
+        SpillQueue queue = new SpillQueue(file, CAPACITY);
+        assertTrue(queue.isEmpty());
+        assertNull(queue.peek());
+        assertTrue(queue.offer(body(0)));
+    }
+
+    @Test
+    void compactsTheEntriesIntoTheSpaceAlreadyRemoved() throws IOException {
+        Path file = directory.resolve("segment");
+        SpillQueue queue = new SpillQueue(file, CAPACITY);
+        for (int i = 0; i < 9; i++) {
+            queue.offer(body(i));
+        }
+        for (int i = 0; i < 5; i++) {
+            queue.remove();
+        }
+
+        // The four entries left fit before the head, so they move to the start
+        for (int i = 9; i < 14; i++) {
+            assertTrue(queue.offer(body(i)), "body " + i);
+        }
+        assertFalse(queue.offer(body(14)));
+
+        SpillQueue reopened = new SpillQueue(file, CAPACITY);
+        assertArrayEquals(bytes(5), reopened.peek());
+        assertEquals(9, reopened.size());
+        for (int i = 5; i < 14; i++) {
+            assertArrayEquals(bytes(i), reopened.peek());
+            reopened.remove();
+        }
+        assertTrue(reopened.isEmpty());
+    }
+
+    @Test
+    void staysFullWhileTheEntriesDoNotFitBeforeTheHead() throws IOException {
+        SpillQueue queue = new SpillQueue(directory.resolve("segment"), CAPACITY);
+        for (int i = 0; i < 9; i++) {
+            queue.offer(body(i));
+        }
+        queue.remove();
+        queue.remove();
+
+        // Seven entries left, two entries of room before them: moving them would overwrite them
+        assertFalse(queue.offer(body(9)));
+        assertEquals(7, queue.size());
+
+        for (int i = 0; i < 3; i++) {
+            queue.remove();
+        }
+        assertTrue(queue.offer(body(9)));
+        assertArrayEquals(bytes(5), queue.peek());
+    }
+
+    private static ByteBuffer body(int id) {
+        return ByteBuffer.wrap(bytes(id));
+    }
+
+    private static byte[] bytes(int id) {
+        byte[] body = new byte[BODY_BYTES];
+        Arrays.fill(body, (byte) (id + 1));
+        return body;
+    }
+
+    private static int indexOf(byte[] segment, byte[] body) {
+        for (int i = 0; i <= segment.length - body.length; i++) {
+            if (Arrays.equals(segment, i, i + body.length, body, 0, body.length)) {
+                return i;
+            }
+        }
+        throw new AssertionError("Body not found in segment");
+    }
+}
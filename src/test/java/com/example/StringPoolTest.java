@@ -0,0 +1,80 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StringPoolTest {
+
+    private final StringPool pool = new StringPool(64);
+
+    @Test
+    void returnsThePooledString() {
+        char[] chars = "xxAWS/EC2yy".toCharArray();
+        String first = pool.intern(chars, 2, 7);
+
+        assertEquals("AWS/EC2", first);
+        assertSame(first, pool.intern("AWS/EC2".toCharArray(), 0, 7));
+        assertSame(first, pool.intern(bytes("AWS/EC2"), 0, 7));
+    }
+
+    @Test
+    void returnsThePooledStringFromBytes() {
+        byte[] bytes = bytes("--InstanceId--");
+        String first = pool.intern(bytes, 2, 10);
+
+        assertEquals("InstanceId", first);
+        assertSame(first, pool.intern(bytes, 2, 10));
+        assertEquals("", pool.intern(bytes, 0, 0));
+    }
+
+    @Test
+    void decodesButDoesNotPoolNonAsciiBytes() {
+        byte[] bytes = bytes("r\u00e9gion");
+        String first = pool.intern(bytes, 0, bytes.length);
+
+        assertEquals("r\u00e9gion", first);
+        assertEquals("r\u00e9gion", pool.intern(bytes, 0, bytes.length));
+        assertTrue(first != pool.intern(bytes, 0, bytes.length));
+        // Characters are pooled whatever they are
+        String chars = pool.intern("r\u00e9gion".toCharArray(), 0, 6);
+        assertSame(chars, pool.intern("r\u00e9gion".toCharArray(), 0, 6));
+    }
+
+    @Test
+    void replacesAStringThatTakesItsSlot() {
+        // Two slots: "a" and "c" both have odd hashes
+        StringPool small = new StringPool(2);
+        String a = small.intern(bytes("a"), 0, 1);
+        String c = small.intern(bytes("c"), 0, 1);
+
+        assertSame(c, small.intern(bytes("c"), 0, 1));
+        String again = small.intern(bytes("a"), 0, 1);
+        assertEquals(a, again);
+        assertTrue(a != again);
+    }
+
+    @Test
+    void poolsNothingWhenEmpty() {
+        StringPool empty = new StringPool(0);
+        String first = empty.intern(bytes("m"), 0, 1);
+
+        assertEquals("m", first);
+        assertTrue(first != empty.intern(bytes("m"), 0, 1));
+        assertTrue(first != empty.intern("m".toCharArray(), 0, 1));
+    }
+
+    @Test
+    void rejectsANegativeSize() {
+        assertThrows(IllegalArgumentException.class, () -> new StringPool(-1));
+    }
+
+    private static byte[] bytes(String string) {
+        return string.getBytes(StandardCharsets.UTF_8);
+    }
+}